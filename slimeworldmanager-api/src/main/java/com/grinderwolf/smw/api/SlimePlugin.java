@@ -8,8 +8,17 @@ import com.grinderwolf.smw.api.loaders.SlimeLoader;
 import com.grinderwolf.smw.api.world.SlimeWorld;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public interface SlimePlugin {
 
     public SlimeWorld loadWorld(SlimeLoader loader, String worldName, SlimeWorld.SlimeProperties properties) throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException, WorldInUseException;
+
+    // The world is detached from the server right away, and then saved (if requested) and unlocked asynchronously
+    public CompletableFuture<Void> unloadWorld(SlimeWorld world, boolean save);
+
+    // World pools
+    public SlimeWorld claimWorld(String templateName) throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException, WorldInUseException;
+    // Returns false if the world couldn't be unloaded (for example, because there are players in it). It can be released again later on
+    public boolean releaseWorld(SlimeWorld world);
 }
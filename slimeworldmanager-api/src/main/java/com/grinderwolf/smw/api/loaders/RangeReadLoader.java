@@ -0,0 +1,24 @@
+package com.grinderwolf.smw.api.loaders;
+
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+
+import java.io.IOException;
+
+// Loaders that can read part of a world without reading all of it
+public interface RangeReadLoader extends SlimeLoader {
+
+    // Opens the world so several parts of it can be read, all of them from the same save
+    public WorldRangeReader openWorldRanges(String worldName) throws UnknownWorldException, IOException;
+
+    // Same as loadWorld, but the world is opened for range reads instead of being read all at once
+    public WorldRangeReader loadWorldRanges(String worldName, boolean readOnly) throws UnknownWorldException, WorldInUseException, IOException;
+
+    // Reads up to length bytes starting at the given position. Less bytes are returned if the world ends before that. Use
+    // openWorldRanges to read several parts that must belong to the same save
+    public default byte[] readWorldRange(String worldName, long position, int length) throws UnknownWorldException, IOException {
+        try (WorldRangeReader reader = openWorldRanges(worldName)) {
+            return reader.read(position, length);
+        }
+    }
+}
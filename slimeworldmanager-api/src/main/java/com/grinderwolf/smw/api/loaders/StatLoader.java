@@ -0,0 +1,16 @@
+package com.grinderwolf.smw.api.loaders;
+
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+
+import java.io.IOException;
+
+// Loaders that can tell the size and modification time of a world without reading it
+public interface StatLoader extends TimestampedLoader {
+
+    public WorldStat getWorldStat(String worldName) throws UnknownWorldException, IOException;
+
+    @Override
+    public default long getLastModified(String worldName) throws UnknownWorldException, IOException {
+        return getWorldStat(worldName).getLastModified();
+    }
+}
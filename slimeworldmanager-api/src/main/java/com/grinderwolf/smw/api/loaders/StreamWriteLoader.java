@@ -0,0 +1,10 @@
+package com.grinderwolf.smw.api.loaders;
+
+import java.io.IOException;
+
+// Loaders that can save a world while it's being serialized, so it never has to fit in a single array
+public interface StreamWriteLoader extends SlimeLoader {
+
+    // The saved world is only replaced once the writer is done. If it fails, the previous save is kept
+    public void saveWorld(String worldName, WorldWriter writer) throws IOException;
+}
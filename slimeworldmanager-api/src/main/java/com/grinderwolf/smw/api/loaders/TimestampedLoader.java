@@ -0,0 +1,12 @@
+package com.grinderwolf.smw.api.loaders;
+
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+
+import java.io.IOException;
+
+// Loaders that can cheaply tell when a world was last saved, without having to read it
+public interface TimestampedLoader extends SlimeLoader {
+
+    // Any value that changes every time the world is saved. It doesn't have to be an actual time
+    public long getLastModified(String worldName) throws UnknownWorldException, IOException;
+}
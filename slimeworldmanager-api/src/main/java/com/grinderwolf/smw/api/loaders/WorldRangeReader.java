@@ -0,0 +1,13 @@
+package com.grinderwolf.smw.api.loaders;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Reads parts of a single save of a world. Saves made while it's open are not seen by it
+public interface WorldRangeReader extends Closeable {
+
+    // Reads up to length bytes starting at the given position. Less bytes are returned if the world ends before that
+    public byte[] read(long position, int length) throws IOException;
+
+    public long size() throws IOException;
+}
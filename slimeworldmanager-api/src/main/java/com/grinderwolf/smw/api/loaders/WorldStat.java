@@ -0,0 +1,12 @@
+package com.grinderwolf.smw.api.loaders;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class WorldStat {
+
+    private final long size; // In bytes
+    private final long lastModified;
+}
@@ -0,0 +1,11 @@
+package com.grinderwolf.smw.api.loaders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writes a serialized world to the stream provided by a loader
+@FunctionalInterface
+public interface WorldWriter {
+
+    public void write(OutputStream outputStream) throws IOException;
+}
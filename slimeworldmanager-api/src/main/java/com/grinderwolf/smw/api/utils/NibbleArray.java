@@ -1,6 +1,8 @@
 package com.grinderwolf.smw.api.utils;
 
-import lombok.Getter;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Credits to Minikloon for this class
@@ -10,27 +12,37 @@ import lombok.Getter;
 public class NibbleArray {
 
     private final int size;
-    @Getter
     private final byte[] backing;
+    private final int offset;
 
     public NibbleArray(int size) {
         this(new byte[size / 2]);
     }
 
     public NibbleArray(byte[] backing) {
+        this(backing, 0, backing.length * 2);
+    }
+
+    // Allows multiple nibble arrays to share the same backing array
+    public NibbleArray(byte[] backing, int offset, int size) {
+        if (offset < 0 || offset + size / 2 > backing.length) {
+            throw new IllegalArgumentException("Nibble array out of bounds: offset " + offset + ", size " + size + ", backing length " + backing.length);
+        }
+
         this.backing = backing;
-        this.size = backing.length * 2;
+        this.offset = offset;
+        this.size = size;
     }
 
     public int get(int index) {
-        int value = this.backing[index / 2];
+        int value = this.backing[offset + index / 2];
 
         return index % 2 == 0 ? value & 0xF : (value & 0xF0) >> 4;
     }
 
     public void set(int index, int value) {
         int nibble = value & 0xF;
-        int halfIndex = index / 2;
+        int halfIndex = offset + index / 2;
         int previous = this.backing[halfIndex];
 
         if (index % 2 == 0) {
@@ -39,4 +51,35 @@ public class NibbleArray {
             this.backing[halfIndex] = (byte) (previous & 0xF | nibble << 4);
         }
     }
+
+    // Returns the backing array if this nibble array uses all of it. Nibble arrays sharing their backing array with others (like
+    // the ones loaded with slab allocation) return a copy of the part they use instead, so changes made to the returned array
+    // only affect this nibble array in the first case. Use set() to modify it, and write() to copy it without allocating
+    public byte[] getBacking() {
+        if (offset == 0 && backing.length == size / 2) {
+            return backing;
+        }
+
+        return toByteArray();
+    }
+
+    // Whether this nibble array only uses part of its backing array, which is then shared with other nibble arrays
+    public boolean isSlice() {
+        return offset != 0 || backing.length != size / 2;
+    }
+
+    // Returns the whole backing array, even if it's shared with other nibble arrays. Only meant to tell which nibble arrays
+    // share their memory, use getBacking() to read the data of this one
+    public byte[] getBackingArray() {
+        return backing;
+    }
+
+    // Always returns a copy, so it can be modified without affecting this nibble array
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(backing, offset, offset + size / 2);
+    }
+
+    public void write(DataOutput output) throws IOException {
+        output.write(backing, offset, size / 2);
+    }
 }
@@ -4,4 +4,20 @@ public class SlimeFormat {
 
     public static final byte[] SLIME_HEADER = new byte[] { -79, 11 };
     public static final byte SLIME_VERSION = 3;
+
+    // Worlds using any of the optional features below are written with this version instead, followed by a byte with their flags.
+    // Worlds that don't use them are still written as SLIME_VERSION, so older versions can read them
+    public static final byte SLIME_FLAGS_VERSION = 4;
+
+    // Sections are kept in the shared section repository, and only referenced by their hash
+    public static final byte FLAG_SHARED_SECTIONS = 0x01;
+
+    // Only the chunks that differ from a base world are stored, along with the name and hash of that world
+    public static final byte FLAG_OVERLAY = 0x02;
+
+    // Chunks are split into regions of REGION_SIZE x REGION_SIZE chunks, which are stored (and can be read) on their own
+    public static final byte FLAG_REGIONS = 0x04;
+    public static final int REGION_SIZE = 32;
+
+    public static final byte KNOWN_FLAGS = FLAG_SHARED_SECTIONS | FLAG_OVERLAY | FLAG_REGIONS;
 }
@@ -0,0 +1,13 @@
+package com.grinderwolf.smw.api.world;
+
+public enum EntityLoadMode {
+
+    // Entities and tile entities are added along with the chunk blocks, as long as the chunk load budget allows it
+    IMMEDIATE,
+
+    // Only the chunk blocks are loaded right away. Entities and tile entities are added during the next ticks
+    DEFERRED,
+
+    // Entities and tile entities are only added once a player gets within tracking range of the chunk
+    TRACKING_RANGE
+}
@@ -6,6 +6,9 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 
+import java.util.Collections;
+import java.util.Set;
+
 public interface SlimeWorld {
 
     public String getName();
@@ -13,6 +16,7 @@ public interface SlimeWorld {
     public SlimeChunk getChunk(int x, int z);
     public CompoundTag getExtraData();
     public SlimeProperties getProperties();
+    public WorldMemoryUsage getMemoryUsage();
 
     @Getter
     @Builder(toBuilder = true)
@@ -29,5 +33,46 @@ public interface SlimeWorld {
         @Accessors(fluent = true)
         final boolean allowAnimals;
         final boolean readOnly;
+
+        // Whether changes made to the chunks of a read-only world are thrown away when they get unloaded
+        final boolean discardChanges;
+
+        // Radius (in chunks) of the spawn area that gets loaded right after the world is created
+        final int preloadRadius;
+
+        // Maximum time (in milliseconds) spent loading chunks on every tick. 0 means no limit
+        final int chunkLoadBudget;
+
+        // Time (in seconds) after which chunks that are not loaded get compressed in memory. 0 means never
+        final int chunkCompressionDelay;
+
+        // Whether the chunk sections are kept outside the Java heap
+        final boolean offHeapStorage;
+
+        // Whether the nibble arrays of the world are loaded into a few shared arrays instead of one array each
+        final boolean slabAllocation;
+
+        // Whether the sections of the world are saved to the shared section repository, so identical sections are only stored once
+        final boolean sharedSections;
+
+        // Whether the world is saved split into regions, which can be read on their own. Worlds too big for a single
+        // chunk frame are always split
+        final boolean regionFormat;
+
+        // World (stored in the same loader) this one is saved as a set of differences from. Null if it's saved as a whole
+        final String baseWorld;
+
+        // Maximum amount of memory (in megabytes) used by the chunks of the world. 0 means no limit
+        final int memoryLimit;
+
+        // Time (in seconds) after which the world gets unloaded if there are no players in it. 0 means never
+        final int idleTimeout;
+
+        @Builder.Default
+        final EntityLoadMode entityLoadMode = EntityLoadMode.IMMEDIATE;
+
+        // Tick profile of the world: parts of the world tick that are skipped
+        @Builder.Default
+        final Set<TickSubsystem> disabledTicks = Collections.emptySet();
     }
 }
@@ -0,0 +1,17 @@
+package com.grinderwolf.smw.api.world;
+
+// Parts of the world tick that can be turned off for mostly static worlds, such as hubs and map templates
+public enum TickSubsystem {
+
+    // Rain and thunder cycles
+    WEATHER,
+
+    // Random block ticks (crop growth, leaf decay, fire spread...), along with lightning strikes and snow and ice forming
+    RANDOM_TICKS,
+
+    // Natural mob spawning
+    MOB_SPAWNING,
+
+    // Periodic world saves. The world is still saved when unloaded and when the server stops
+    AUTOSAVE
+}
@@ -0,0 +1,36 @@
+package com.grinderwolf.smw.api.world;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+// Estimated amount of memory (in bytes) used by the chunks of a world. Slabs are shared by the sections of the world loaded
+// with slab allocation, and shared sections are also used by other worlds, so they're only freed once no world uses them
+@Getter
+@RequiredArgsConstructor
+public class WorldMemoryUsage {
+
+    private final long sections;
+    private final long offHeapSections;
+    private final long slabSections;
+    private final long sharedSections;
+    private final long heightMapsAndBiomes;
+    private final long entities;
+    private final long serializedEntities;
+    private final long compressedChunks;
+
+    private final int loadedChunks;
+    private final int compressedChunkCount;
+
+    public long getHeapUsage() {
+        return sections + slabSections + sharedSections + heightMapsAndBiomes + entities + serializedEntities + compressedChunks;
+    }
+
+    public long getTotalUsage() {
+        return getHeapUsage() + offHeapSections;
+    }
+
+    // Memory that would be freed if the world was unloaded and no other world used its shared sections
+    public long getOwnedUsage() {
+        return getTotalUsage() - sharedSections;
+    }
+}
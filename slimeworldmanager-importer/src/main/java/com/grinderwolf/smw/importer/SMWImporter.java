@@ -8,31 +8,28 @@ import com.flowpowered.nbt.IntArrayTag;
 import com.flowpowered.nbt.IntTag;
 import com.flowpowered.nbt.ListTag;
 import com.flowpowered.nbt.stream.NBTInputStream;
-import com.flowpowered.nbt.stream.NBTOutputStream;
-import com.github.luben.zstd.Zstd;
 import com.github.tomaslanger.chalk.Chalk;
 import com.grinderwolf.smw.api.utils.NibbleArray;
-import com.grinderwolf.smw.api.utils.SlimeFormat;
 import com.grinderwolf.smw.api.world.SlimeChunk;
 import com.grinderwolf.smw.api.world.SlimeChunkSection;
+import com.grinderwolf.smw.api.world.SlimeWorld;
 import com.grinderwolf.smw.nms.CraftSlimeChunk;
 import com.grinderwolf.smw.nms.CraftSlimeChunkSection;
+import com.grinderwolf.smw.nms.CraftSlimeWorld;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteOrder;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
 import java.util.stream.Collectors;
@@ -74,8 +71,9 @@ public class SMWImporter {
         }
 
         System.out.println("**** WARNING ****");
-        System.out.println("The Slime Format is meant to be used on tiny maps, not big survival worlds. It is recommended " +
-                "to trim your world by using the Prune MCEdit tool to ensure you don't save more chunks than you want to.");
+        System.out.println("The Slime Format is meant to be used on small maps, not big survival worlds. Big worlds are split into " +
+                "regions, and worlds bigger than 2 GB can only be loaded and saved by the file loader. It is still recommended to trim " +
+                "your world by using the Prune MCEdit tool to ensure you don't save more chunks than you want to.");
         System.out.println("");
         System.out.println("NOTE: This utility will automatically ignore every chunk that doesn't contain any blocks.");
         System.out.print("Do you want to continue? [Y/N]: ");
@@ -99,23 +97,17 @@ public class SMWImporter {
 
             try {
                 long start = System.currentTimeMillis();
-                byte[] slimeFormattedWorld = generateSlimeWorld(chunks);
-
-                System.out.println(Chalk.on("World " + worldDir.getName() + " successfully serialized to the Slime Format in "
-                        + (System.currentTimeMillis() - start) + "ms!").green());
-
                 File slimeFile = new File(worldDir.getName() + ".slime");
 
                 slimeFile.createNewFile();
 
-                try (FileOutputStream stream = new FileOutputStream(slimeFile)) {
-                    stream.write(slimeFormattedWorld);
-                    stream.flush();
+                // Written while it's serialized, as big worlds don't fit in a single array
+                try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(slimeFile))) {
+                    generateSlimeWorld(worldDir.getName(), chunks, stream);
                 }
-            } catch (IndexOutOfBoundsException ex) {
-                // Thanks for providing a world so big that it just overflowed the coordinate system!
-                System.err.println("Hey! Didn't you just read the warning? The Slime Format isn't meant for big worlds. The world you provided " +
-                        "just breaks everything. Please, trim it by using the MCEdit tool and try again.");
+
+                System.out.println(Chalk.on("World " + worldDir.getName() + " successfully serialized to the Slime Format in "
+                        + (System.currentTimeMillis() - start) + "ms!").green());
             } catch (IOException ex) {
                 System.err.println("Failed to save the world file.");
                 ex.printStackTrace();
@@ -229,143 +221,17 @@ public class SMWImporter {
         return true;
     }
 
-    private static byte[] generateSlimeWorld(List<SlimeChunk> chunks) {
-        List<SlimeChunk> sortedChunks = new ArrayList<>(chunks);
-        sortedChunks.sort(Comparator.comparingLong(chunk -> (long) chunk.getZ() * Integer.MAX_VALUE + (long) chunk.getX()));
-
-        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
-        DataOutputStream outStream = new DataOutputStream(outByteStream);
-
-        try {
-            // File Header and Slime version
-            outStream.write(SlimeFormat.SLIME_HEADER);
-            outStream.write(SlimeFormat.SLIME_VERSION);
-
-            // Lowest chunk coordinates
-            int minX = sortedChunks.stream().mapToInt(SlimeChunk::getX).min().getAsInt();
-            int minZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).min().getAsInt();
-            int maxX = sortedChunks.stream().mapToInt(SlimeChunk::getX).max().getAsInt();
-            int maxZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).max().getAsInt();
-
-            outStream.writeShort(minX);
-            outStream.writeShort(minZ);
-
-            // Width and depth
-            int width = maxX - minX + 1;
-            int depth = maxZ - minZ + 1;
-
-            outStream.writeShort(width);
-            outStream.writeShort(depth);
-
-            // Chunk Bitmask
-            BitSet chunkBitset = new BitSet(width * depth);
-
-            for (SlimeChunk chunk : sortedChunks) {
-                int bitsetIndex = (chunk.getZ() - minZ) * width + (chunk.getX() - minX);
-
-                chunkBitset.set(bitsetIndex, true);
-            }
-
-            int chunkMaskSize = (int) Math.ceil((width * depth) / 8.0D);
-            writeBitSetAsBytes(outStream, chunkBitset, chunkMaskSize);
-
-            // Chunks
-            byte[] chunkData = serializeChunks(sortedChunks);
-            byte[] compressedChunkData = Zstd.compress(chunkData);
-
-            outStream.writeInt(compressedChunkData.length);
-            outStream.writeInt(chunkData.length);
-            outStream.write(compressedChunkData);
-
-            // Tile Entities
-            List<CompoundTag> tileEntitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getTileEntities().stream()).collect(Collectors.toList());
-            ListTag<CompoundTag> tileEntitiesNbtList = new ListTag<>("tiles", CompoundTag.class, tileEntitiesList);
-            CompoundTag tileEntitiesCompound = new CompoundTag("", new CompoundMap(Collections.singletonList(tileEntitiesNbtList)));
-            byte[] tileEntitiesData = serializeCompoundTag(tileEntitiesCompound);
-            byte[] compressedTileEntitiesData = Zstd.compress(tileEntitiesData);
-
-            outStream.writeInt(compressedTileEntitiesData.length);
-            outStream.writeInt(tileEntitiesData.length);
-            outStream.write(compressedTileEntitiesData);
-
-            // Entities
-            List<CompoundTag> entitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getEntities().stream()).collect(Collectors.toList());
-
-            outStream.writeBoolean(!entitiesList.isEmpty());
-
-            if (!entitiesList.isEmpty()) {
-                ListTag<CompoundTag> entitiesNbtList = new ListTag<>("entities", CompoundTag.class, entitiesList);
-                CompoundTag entitiesCompound = new CompoundTag("", new CompoundMap(Collections.singletonList(entitiesNbtList)));
-                byte[] entitiesData = serializeCompoundTag(entitiesCompound);
-                byte[] compressedEntitiesData = Zstd.compress(entitiesData);
-
-                outStream.writeInt(compressedEntitiesData.length);
-                outStream.writeInt(entitiesData.length);
-                outStream.write(compressedEntitiesData);
-            }
-
-            // Extra Tag
-            outStream.writeInt(0);
-            outStream.writeInt(0);
-        } catch (IOException ex) { // Ignore
-            ex.printStackTrace();
-        }
-
-        return outByteStream.toByteArray();
-    }
-
-    private static void writeBitSetAsBytes(DataOutputStream outStream, BitSet set, int fixedSize) throws IOException {
-        byte[] array = set.toByteArray();
-        outStream.write(array);
-
-        int chunkMaskPadding = fixedSize - array.length;
-
-        for (int i = 0; i < chunkMaskPadding; i++) {
-            outStream.write(0);
-        }
-    }
-
-    private static byte[] serializeChunks(List<SlimeChunk> chunks) throws IOException {
-        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream(16384);
-        DataOutputStream outStream = new DataOutputStream(outByteStream);
+    // Worlds too big to be saved as a single block of chunks are split into regions
+    private static void generateSlimeWorld(String worldName, List<SlimeChunk> chunks, OutputStream outputStream) throws IOException {
+        Map<Long, SlimeChunk> chunkMap = new HashMap<>();
 
         for (SlimeChunk chunk : chunks) {
-            for (int value : chunk.getHeightMap()) {
-                outStream.writeInt(value);
-            }
-
-            outStream.write(chunk.getBiomes());
-
-            SlimeChunkSection[] sections = chunk.getSections();
-            BitSet sectionBitmask = new BitSet(16);
-
-            for (int i = 0; i < sections.length; i++) {
-                sectionBitmask.set(i, sections[i] != null);
-            }
-
-            writeBitSetAsBytes(outStream, sectionBitmask, 2);
-
-            for (SlimeChunkSection section : sections) {
-                if (section == null) {
-                    continue;
-                }
-
-                outStream.write(section.getBlockLight().getBacking());
-                outStream.write(section.getBlocks());
-                outStream.write(section.getData().getBacking());
-                outStream.write(section.getSkyLight().getBacking());
-                outStream.writeShort(0); // HypixelBlocks 3
-            }
+            chunkMap.put((long) chunk.getZ() * Integer.MAX_VALUE + (long) chunk.getX(), chunk);
         }
 
-        return outByteStream.toByteArray();
-    }
-
-    private static byte[] serializeCompoundTag(CompoundTag tag) throws IOException {
-        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
-        NBTOutputStream outStream = new NBTOutputStream(outByteStream, false, ByteOrder.BIG_ENDIAN);
-        outStream.writeTag(tag);
+        CraftSlimeWorld world = new CraftSlimeWorld(null, worldName, chunkMap, new CompoundTag("", new CompoundMap()), null, null, null,
+                null, SlimeWorld.SlimeProperties.builder().build());
 
-        return outByteStream.toByteArray();
+        world.serialize(outputStream);
     }
 }
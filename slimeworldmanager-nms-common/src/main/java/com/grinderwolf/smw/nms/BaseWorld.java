@@ -0,0 +1,19 @@
+package com.grinderwolf.smw.nms;
+
+import com.google.common.hash.HashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Map;
+
+// World other worlds are saved as a set of differences from. Only the hashes of its chunks are kept, to find out which ones changed
+@Getter
+@RequiredArgsConstructor
+public class BaseWorld {
+
+    public static final int HASH_LENGTH = 16;
+
+    private final String name;
+    private final byte[] hash; // Hash of the whole serialized world
+    private final Map<Long, HashCode> chunkHashes;
+}
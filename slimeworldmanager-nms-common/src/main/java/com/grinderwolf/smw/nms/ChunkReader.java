@@ -0,0 +1,13 @@
+package com.grinderwolf.smw.nms;
+
+import com.grinderwolf.smw.api.world.SlimeChunk;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+// Reads chunks back from the world storage, so they can be dropped from memory while they're not being used
+public interface ChunkReader {
+
+    public Map<Long, SlimeChunk> readChunks(Set<Long> chunkIndexes) throws IOException;
+}
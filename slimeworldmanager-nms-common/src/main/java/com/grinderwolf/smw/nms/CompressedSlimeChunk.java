@@ -0,0 +1,102 @@
+package com.grinderwolf.smw.nms;
+
+import com.flowpowered.nbt.CompoundTag;
+import com.github.luben.zstd.Zstd;
+import com.grinderwolf.smw.api.utils.NibbleArray;
+import com.grinderwolf.smw.api.world.SlimeChunk;
+import com.grinderwolf.smw.api.world.SlimeChunkSection;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+// Chunk whose block data is kept compressed while nobody is using it. Tile entities and entities are already compact, so they're kept as they are
+@Getter
+@RequiredArgsConstructor
+public class CompressedSlimeChunk {
+
+    private final String worldName;
+    private final int x;
+    private final int z;
+
+    private final byte[] compressedData;
+    private final int dataLength;
+    private final List<CompoundTag> tileEntities;
+    private final List<CompoundTag> entities;
+
+    public static CompressedSlimeChunk compress(String worldName, SlimeChunk chunk) {
+        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream(16384);
+        DataOutputStream outStream = new DataOutputStream(outByteStream);
+
+        try {
+            CraftSlimeWorld.serializeChunk(outStream, chunk);
+        } catch (IOException ex) { // Not going to happen, as we're writing to a byte array
+            throw new IllegalStateException(ex);
+        }
+
+        byte[] data = outByteStream.toByteArray();
+
+        return new CompressedSlimeChunk(worldName, chunk.getX(), chunk.getZ(), Zstd.compress(data), data.length, chunk.getTileEntities(), chunk.getEntities());
+    }
+
+    // If an arena is provided, sections are stored there instead of on the heap
+    public SlimeChunk inflate(SectionArena sectionArena) {
+        byte[] data = new byte[dataLength];
+        Zstd.decompress(data, compressedData);
+
+        DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(data));
+
+        try {
+            // HeightMap
+            int[] heightMap = new int[256];
+
+            for (int i = 0; i < 256; i++) {
+                heightMap[i] = dataStream.readInt();
+            }
+
+            // Biome array
+            byte[] biomes = new byte[256];
+            dataStream.readFully(biomes);
+
+            // Chunk Sections
+            SlimeChunkSection[] sections = new SlimeChunkSection[16];
+            int sectionBitmask = (dataStream.readByte() & 255) | (dataStream.readByte() & 255) << 8;
+
+            byte[] sectionData = sectionArena != null ? new byte[SectionArena.SECTION_SIZE] : null;
+
+            for (int i = 0; i < 16; i++) {
+                if ((sectionBitmask & 1 << i) != 0 && sectionArena != null) {
+                    dataStream.readFully(sectionData);
+                    dataStream.skip(dataStream.readShort()); // HypixelBlocks 3
+
+                    sections[i] = sectionArena.store(sectionData);
+                } else if ((sectionBitmask & 1 << i) != 0) {
+                    byte[] blockLight = new byte[2048];
+                    dataStream.readFully(blockLight);
+
+                    byte[] blocks = new byte[4096];
+                    dataStream.readFully(blocks);
+
+                    byte[] blockData = new byte[2048];
+                    dataStream.readFully(blockData);
+
+                    byte[] skyLight = new byte[2048];
+                    dataStream.readFully(skyLight);
+
+                    dataStream.skip(dataStream.readShort()); // HypixelBlocks 3
+
+                    sections[i] = new CraftSlimeChunkSection(blocks, new NibbleArray(blockData), new NibbleArray(blockLight), new NibbleArray(skyLight));
+                }
+            }
+
+            return new CraftSlimeChunk(worldName, x, z, sections, heightMap, biomes, tileEntities, entities);
+        } catch (IOException ex) { // We wrote this data ourselves, so it can't be corrupted
+            throw new IllegalStateException(ex);
+        }
+    }
+}
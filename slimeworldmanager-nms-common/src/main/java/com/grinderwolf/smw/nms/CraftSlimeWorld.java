@@ -1,51 +1,274 @@
 package com.grinderwolf.smw.nms;
 
-import com.flowpowered.nbt.CompoundMap;
 import com.flowpowered.nbt.CompoundTag;
-import com.flowpowered.nbt.ListTag;
 import com.flowpowered.nbt.stream.NBTOutputStream;
 import com.github.luben.zstd.Zstd;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import com.grinderwolf.smw.api.loaders.SlimeLoader;
 import com.grinderwolf.smw.api.utils.SlimeFormat;
 import com.grinderwolf.smw.api.world.SlimeChunk;
 import com.grinderwolf.smw.api.world.SlimeChunkSection;
 import com.grinderwolf.smw.api.world.SlimeWorld;
-import lombok.AllArgsConstructor;
+import com.grinderwolf.smw.api.world.WorldMemoryUsage;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 @Getter
-@AllArgsConstructor
 public class CraftSlimeWorld implements SlimeWorld {
 
+    private static final HashFunction CHUNK_HASH_FUNCTION = Hashing.murmur3_128();
+
     private final SlimeLoader loader;
     private final String name;
     private final Map<Long, SlimeChunk> chunks;
     private final CompoundTag extraData;
 
+    // Only present if the world keeps its sections off-heap
+    private final SectionArena sectionArena;
+
+    // Only present if chunks can be dropped from memory and read again when needed
+    private final ChunkReader chunkReader;
+
+    // Only present if the world is saved as a set of differences from another world
+    private final BaseWorld baseWorld;
+
     @Setter
     private SlimeProperties properties;
 
+    // Chunks that haven't been used for a while are kept compressed. Both maps are guarded by the chunks map lock
+    @Getter(value = AccessLevel.NONE)
+    private final Map<Long, CompressedSlimeChunk> compressedChunks = new HashMap<>();
+    @Getter(value = AccessLevel.NONE)
+    private final Map<Long, Long> lastAccessTimes = new HashMap<>();
+
+    // Chunks that have been dropped from memory, and chunks that have been modified since the last save (along with the modification number)
+    @Getter(value = AccessLevel.NONE)
+    private final Set<Long> evictedChunks = new HashSet<>();
+    @Getter(value = AccessLevel.NONE)
+    private final Map<Long, Long> dirtyChunks = new HashMap<>();
+    @Getter(value = AccessLevel.NONE)
+    private final AtomicLong modificationCounter = new AtomicLong();
+
+    // Also guarded by the chunks map lock
+    @Getter(value = AccessLevel.NONE)
+    private final WorldMemoryTracker memoryTracker = new WorldMemoryTracker();
+
+    // Whether each chunk is the same as in the base world, for the chunks that haven't been modified since they were last compared
+    // with it. Also guarded by the chunks map lock
+    @Getter(value = AccessLevel.NONE)
+    private final Map<Long, Boolean> baseChunkMatches = new HashMap<>();
+
+    // If provided, the base chunk indexes are the chunks that were taken from the base world when the world was loaded
+    public CraftSlimeWorld(SlimeLoader loader, String name, Map<Long, SlimeChunk> chunks, CompoundTag extraData, SectionArena sectionArena,
+                           ChunkReader chunkReader, BaseWorld baseWorld, Set<Long> baseChunkIndexes, SlimeProperties properties) {
+        this.loader = loader;
+        this.name = name;
+        this.chunks = chunks;
+        this.extraData = extraData;
+        this.sectionArena = sectionArena;
+        this.chunkReader = chunkReader;
+        this.baseWorld = baseWorld;
+        this.properties = properties;
+
+        for (Map.Entry<Long, SlimeChunk> entry : chunks.entrySet()) {
+            memoryTracker.track(entry.getKey(), entry.getValue());
+
+            if (baseChunkIndexes != null) {
+                baseChunkMatches.put(entry.getKey(), baseChunkIndexes.contains(entry.getKey()));
+            }
+        }
+    }
+
     @Override
     public SlimeChunk getChunk(int x, int z) {
+        Long index = (((long) z) * Integer.MAX_VALUE + ((long) x));
+
+        synchronized (chunks) {
+            SlimeChunk chunk = getLoadedChunk(index);
+
+            if (chunk != null || !evictedChunks.contains(index)) {
+                return chunk;
+            }
+        }
+
+        // Chunks around players are read back by the chunk prefetcher before they're needed, so this should rarely happen
+        Map<Long, SlimeChunk> readChunks = readEvictedChunks(Collections.singleton(index));
+
+        if (readChunks.containsKey(index)) {
+            return readChunks.get(index);
+        }
+
+        // Someone else read it back in the meantime
         synchronized (chunks) {
-            Long index = (((long) z) * Integer.MAX_VALUE + ((long) x));
+            return getLoadedChunk(index);
+        }
+    }
 
-            return chunks.get(index);
+    // Reads the provided chunks back into memory if they have been dropped from it, all at once. Reading chunks can take a
+    // while, so this should be called before the chunks are needed, from any thread other than the main one
+    public void readEvictedChunks(List<int[]> chunkCoords) {
+        Set<Long> indexes = new HashSet<>();
+
+        for (int[] chunk : chunkCoords) {
+            indexes.add(((long) chunk[1]) * Integer.MAX_VALUE + ((long) chunk[0]));
+        }
+
+        readEvictedChunks(indexes);
+    }
+
+    // Returns the current chunk of every provided index that had been dropped from memory
+    private Map<Long, SlimeChunk> readEvictedChunks(Set<Long> indexes) {
+        Set<Long> evictedIndexes;
+
+        synchronized (chunks) {
+            evictedIndexes = indexes.stream().filter(evictedChunks::contains).collect(Collectors.toSet());
+        }
+
+        if (evictedIndexes.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        // Don't hold the lock while reading, as it might take a while
+        Map<Long, SlimeChunk> readChunks;
+
+        try {
+            readChunks = chunkReader.readChunks(evictedIndexes);
+        } catch (IOException ex) { // Returning null would replace the chunks with empty ones
+            throw new IllegalStateException("Failed to read " + evictedIndexes.size() + " chunks of world " + name, ex);
+        }
+
+        Map<Long, SlimeChunk> currentChunks = new HashMap<>();
+
+        for (Long index : evictedIndexes) {
+            SlimeChunk chunk = storeSections(readChunks.get(index));
+
+            synchronized (chunks) {
+                SlimeChunk currentChunk = getLoadedChunk(index);
+
+                // Someone else might have already read or updated the chunk
+                if (currentChunk != null || !evictedChunks.remove(index)) {
+                    freeSections(chunk);
+                    currentChunks.put(index, currentChunk);
+                    continue;
+                }
+
+                if (chunk != null) {
+                    chunks.put(index, chunk);
+                    lastAccessTimes.put(index, System.currentTimeMillis());
+                    memoryTracker.track(index, chunk);
+                }
+
+                currentChunks.put(index, chunk);
+            }
+        }
+
+        return currentChunks;
+    }
+
+    // Must be called while holding the chunks lock
+    private SlimeChunk getLoadedChunk(Long index) {
+        SlimeChunk chunk = chunks.get(index);
+
+        if (chunk == null) {
+            CompressedSlimeChunk compressedChunk = compressedChunks.remove(index);
+
+            if (compressedChunk == null) {
+                return null;
+            }
+
+            chunk = compressedChunk.inflate(sectionArena);
+            chunks.put(index, chunk);
+            memoryTracker.track(index, chunk);
+        }
+
+        lastAccessTimes.put(index, System.currentTimeMillis());
+
+        return chunk;
+    }
+
+    // Checks if the chunk exists without reading it back into memory
+    public boolean hasChunk(int x, int z) {
+        Long index = (((long) z) * Integer.MAX_VALUE + ((long) x));
+
+        synchronized (chunks) {
+            return chunks.containsKey(index) || compressedChunks.containsKey(index) || evictedChunks.contains(index);
+        }
+    }
+
+    private SlimeChunk storeSections(SlimeChunk chunk) {
+        if (sectionArena == null || chunk == null) {
+            return chunk;
+        }
+
+        SlimeChunkSection[] sections = new SlimeChunkSection[chunk.getSections().length];
+
+        // The chunk might be using sections of this arena too
+        startReadingSections();
+
+        try {
+            for (int i = 0; i < sections.length; i++) {
+                if (chunk.getSections()[i] != null) {
+                    sections[i] = sectionArena.store(chunk.getSections()[i]);
+                }
+            }
+        } finally {
+            stopReadingSections();
+        }
+
+        return new CraftSlimeChunk(name, chunk.getX(), chunk.getZ(), sections, chunk.getHeightMap(), chunk.getBiomes(),
+                chunk.getTileEntities(), chunk.getEntities());
+    }
+
+    // Gives the off-heap sections of a chunk that's no longer in the chunks map back to the arena
+    private void freeSections(SlimeChunk chunk) {
+        if (sectionArena == null || chunk == null) {
+            return;
+        }
+
+        for (SlimeChunkSection section : chunk.getSections()) {
+            if (section != null) {
+                sectionArena.free(section);
+            }
+        }
+    }
+
+    // Off-heap sections can be freed and reused as soon as their chunk is replaced or dropped from memory. Code reading the
+    // sections of a chunk outside of the chunks lock must do it between these two calls, starting before getting the chunk
+    public void startReadingSections() {
+        if (sectionArena != null) {
+            sectionArena.startReading();
+        }
+    }
+
+    public void stopReadingSections() {
+        if (sectionArena != null) {
+            sectionArena.stopReading();
         }
     }
 
@@ -56,106 +279,399 @@ public class CraftSlimeWorld implements SlimeWorld {
             throw new IllegalArgumentException("Chunk (" + chunk.getX() + ", " + chunk.getZ() + ") belongs to world '" + ((CraftSlimeChunk) chunk).getWorldName() + "', not to '" + getName() + "'!");
         }
 
+        chunk = storeSections(chunk);
+
+        synchronized (chunks) {
+            Long index = ((long) chunk.getZ()) * Integer.MAX_VALUE + ((long) chunk.getX());
+
+            freeSections(chunks.put(index, chunk));
+            compressedChunks.remove(index);
+            evictedChunks.remove(index);
+            lastAccessTimes.put(index, System.currentTimeMillis());
+            dirtyChunks.put(index, modificationCounter.incrementAndGet());
+            baseChunkMatches.remove(index);
+            memoryTracker.track(index, chunk);
+        }
+    }
+
+    public long getModificationCount() {
+        return modificationCounter.get();
+    }
+
+    // Called once the world has been saved. Chunks modified up to the provided modification number can be dropped from memory again
+    public void markSaved(long modificationCount) {
+        synchronized (chunks) {
+            dirtyChunks.values().removeIf(modification -> modification <= modificationCount);
+        }
+    }
+
+    // Drops the least recently used chunks that are not in use until the world fits in the provided amount of memory (in bytes).
+    // Only chunks that haven't been modified since the last save can be dropped, as they have to be read again from the world storage
+    public int evictChunks(long memoryLimit, BiPredicate<Integer, Integer> inUse) {
+        if (chunkReader == null) {
+            return 0;
+        }
+
+        synchronized (chunks) {
+            // Shared sections stay in memory no matter what this world does, so they're not counted
+            long memoryUsage = memoryTracker.getOwnedUsage();
+
+            if (memoryUsage <= memoryLimit) {
+                return 0;
+            }
+
+            List<Long> candidates = new ArrayList<>(chunks.keySet());
+            candidates.addAll(compressedChunks.keySet());
+            candidates.removeIf(dirtyChunks::containsKey);
+            candidates.sort(Comparator.comparingLong(index -> lastAccessTimes.getOrDefault(index, 0L)));
+            int evicted = 0;
+
+            for (Long index : candidates) {
+                if (memoryUsage <= memoryLimit) {
+                    break;
+                }
+
+                SlimeChunk chunk = chunks.get(index);
+                CompressedSlimeChunk compressedChunk = compressedChunks.get(index);
+                int x = chunk != null ? chunk.getX() : compressedChunk.getX();
+                int z = chunk != null ? chunk.getZ() : compressedChunk.getZ();
+
+                if (inUse.test(x, z)) {
+                    continue;
+                }
+
+                // Slabs are only freed along with the last chunk using them
+                memoryTracker.untrack(index);
+                memoryUsage = memoryTracker.getOwnedUsage();
+                freeSections(chunks.remove(index));
+                compressedChunks.remove(index);
+                lastAccessTimes.remove(index);
+                evictedChunks.add(index);
+                evicted++;
+            }
+
+            return evicted;
+        }
+    }
+
+    @Override
+    public WorldMemoryUsage getMemoryUsage() {
+        synchronized (chunks) {
+            return memoryTracker.getMemoryUsage();
+        }
+    }
+
+    // Returns the chunks that haven't been accessed for the provided amount of time (in milliseconds) and are not in use. Picking
+    // them is kept apart from compressing them, as the in use check usually has to run on the main thread and compressing doesn't
+    public List<SlimeChunk> getIdleChunks(long idleTime, BiPredicate<Integer, Integer> inUse) {
+        long minAccessTime = System.currentTimeMillis() - idleTime;
+        List<SlimeChunk> idleChunks = new ArrayList<>();
+
         synchronized (chunks) {
-            chunks.put(((long) chunk.getZ()) * Integer.MAX_VALUE + ((long) chunk.getX()), chunk);
+            for (SlimeChunk chunk : chunks.values()) {
+                Long index = ((long) chunk.getZ()) * Integer.MAX_VALUE + ((long) chunk.getX());
+
+                // Chunks that have never been accessed start counting now
+                Long lastAccessTime = lastAccessTimes.putIfAbsent(index, System.currentTimeMillis());
+
+                if (lastAccessTime != null && lastAccessTime <= minAccessTime && !inUse.test(chunk.getX(), chunk.getZ())) {
+                    idleChunks.add(chunk);
+                }
+            }
+        }
+
+        return idleChunks;
+    }
+
+    // Compresses the provided chunks without holding the chunks lock, so it can be called from any thread. Chunks that have been
+    // replaced or accessed since they were picked are kept as they are, which also discards anything read from freed sections
+    public int compressChunks(List<SlimeChunk> idleChunks, long idleTime) {
+        int compressed = 0;
+
+        for (SlimeChunk chunk : idleChunks) {
+            Long index = ((long) chunk.getZ()) * Integer.MAX_VALUE + ((long) chunk.getX());
+            CompressedSlimeChunk compressedChunk = CompressedSlimeChunk.compress(name, chunk);
+
+            synchronized (chunks) {
+                Long lastAccessTime = lastAccessTimes.get(index);
+
+                if (chunks.get(index) != chunk || lastAccessTime == null || lastAccessTime > System.currentTimeMillis() - idleTime) {
+                    continue;
+                }
+
+                freeSections(chunks.remove(index));
+                compressedChunks.put(index, compressedChunk);
+                memoryTracker.track(index, compressedChunk);
+                lastAccessTimes.remove(index);
+                compressed++;
+            }
         }
+
+        return compressed;
     }
 
     // World Serialization methods
 
-    public byte[] serialize() {
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
+        serialize(outByteStream);
+
+        return outByteStream.toByteArray();
+    }
+
+    // Writes the world as it's serialized, so it doesn't have to fit in a single array. Only the regions are kept in memory until
+    // the region index is written
+    public void serialize(OutputStream outputStream) throws IOException {
+        startReadingSections();
+
+        try {
+            serializeWorld(outputStream);
+        } finally {
+            stopReadingSections();
+        }
+    }
+
+    private void serializeWorld(OutputStream outputStream) throws IOException {
         List<SlimeChunk> sortedChunks;
+        Set<Long> evictedIndexes;
+        Map<Long, Boolean> knownBaseChunkMatches;
+
+        // Chunks that had to be inflated, along with the compressed chunk they come from
+        Map<SlimeChunk, CompressedSlimeChunk> inflatedChunks = new IdentityHashMap<>();
 
         synchronized (chunks) {
             sortedChunks = new ArrayList<>(chunks.values());
+            evictedIndexes = new HashSet<>(evictedChunks);
+            knownBaseChunkMatches = new HashMap<>(baseChunkMatches);
+
+            for (CompressedSlimeChunk compressedChunk : compressedChunks.values()) {
+                SlimeChunk chunk = compressedChunk.inflate(null);
+
+                sortedChunks.add(chunk);
+                inflatedChunks.put(chunk, compressedChunk);
+            }
+        }
+
+        // Chunks that are not in memory must be saved too
+        if (!evictedIndexes.isEmpty()) {
+            sortedChunks.addAll(chunkReader.readChunks(evictedIndexes).values());
         }
 
         sortedChunks.sort(Comparator.comparingLong(chunk -> (long) chunk.getZ() * Integer.MAX_VALUE + (long) chunk.getX()));
         sortedChunks.removeIf(chunk -> chunk == null || Arrays.stream(chunk.getSections()).allMatch(Objects::isNull)); // Remove empty chunks to save space
 
-        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
-        DataOutputStream outStream = new DataOutputStream(outByteStream);
+        // Chunks that are the same as in the base world are left out, and the ones that are gone from this world are listed instead
+        BaseWorld baseWorld = properties.getBaseWorld() != null && this.baseWorld != null
+                && this.baseWorld.getName().equals(properties.getBaseWorld()) ? this.baseWorld : null;
+        Set<Long> removedChunks = new HashSet<>();
 
-        try {
-            // File Header and Slime version
-            outStream.write(SlimeFormat.SLIME_HEADER);
+        if (baseWorld != null) {
+            removedChunks.addAll(baseWorld.getChunkHashes().keySet());
+
+            for (Iterator<SlimeChunk> iterator = sortedChunks.iterator(); iterator.hasNext(); ) {
+                SlimeChunk chunk = iterator.next();
+                long index = (long) chunk.getZ() * Integer.MAX_VALUE + (long) chunk.getX();
+
+                removedChunks.remove(index);
+
+                // Only the chunks that have been modified since they were last compared with the base world are hashed again
+                Boolean sameAsBase = knownBaseChunkMatches.get(index);
+
+                if (sameAsBase == null) {
+                    sameAsBase = hashChunk(chunk).equals(baseWorld.getChunkHashes().get(index));
+
+                    synchronized (chunks) {
+                        // Unless the chunk has been replaced in the meantime
+                        CompressedSlimeChunk compressedChunk = inflatedChunks.get(chunk);
+
+                        if (compressedChunk != null ? compressedChunks.get(index) == compressedChunk : chunks.get(index) == chunk) {
+                            baseChunkMatches.put(index, sameAsBase);
+                        }
+                    }
+                }
+
+                if (sameAsBase) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        // Lowest and highest chunk coordinates. Worlds saved as differences from another world might not have any chunks
+        int minX = sortedChunks.stream().mapToInt(SlimeChunk::getX).min().orElse(0);
+        int minZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).min().orElse(0);
+        int maxX = sortedChunks.stream().mapToInt(SlimeChunk::getX).max().orElse(-1);
+        int maxZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).max().orElse(-1);
+
+        int width = maxX - minX + 1;
+        int depth = maxZ - minZ + 1;
+
+        // Worlds that don't fit in a single chunk frame are always split into regions
+        boolean sharedSections = properties.isSharedSections();
+        boolean regions = properties.isRegionFormat() || minX < Short.MIN_VALUE || minZ < Short.MIN_VALUE || maxX > Short.MAX_VALUE
+                || maxZ > Short.MAX_VALUE || width > Short.MAX_VALUE || depth > Short.MAX_VALUE;
+
+        // Any failure (for example, a section that can't be stored in the section repository) must fail the whole save
+        DataOutputStream outStream = new DataOutputStream(outputStream);
+
+        // File Header and Slime version
+        outStream.write(SlimeFormat.SLIME_HEADER);
+
+        int flags = (sharedSections ? SlimeFormat.FLAG_SHARED_SECTIONS : 0) | (baseWorld != null ? SlimeFormat.FLAG_OVERLAY : 0)
+                | (regions ? SlimeFormat.FLAG_REGIONS : 0);
+
+        if (flags != 0) {
+            outStream.write(SlimeFormat.SLIME_FLAGS_VERSION);
+            outStream.write(flags);
+        } else {
             outStream.write(SlimeFormat.SLIME_VERSION);
+        }
 
-            // Lowest chunk coordinates
-            int minX = sortedChunks.stream().mapToInt(SlimeChunk::getX).min().getAsInt();
-            int minZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).min().getAsInt();
-            int maxX = sortedChunks.stream().mapToInt(SlimeChunk::getX).max().getAsInt();
-            int maxZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).max().getAsInt();
+        if (regions) {
+            writeRegions(outStream, sortedChunks, baseWorld, removedChunks, sharedSections);
+        } else {
+            writeBaseWorld(outStream, baseWorld, removedChunks);
 
             outStream.writeShort(minX);
             outStream.writeShort(minZ);
-
-            // Width and depth
-            int width = maxX - minX + 1;
-            int depth = maxZ - minZ + 1;
-
             outStream.writeShort(width);
             outStream.writeShort(depth);
 
-            // Chunk Bitmask
-            BitSet chunkBitset = new BitSet(width * depth);
+            writeChunkFrame(outStream, sortedChunks, minX, minZ, width, depth, sharedSections);
+            writeExtraTag(outStream);
+        }
+
+        outStream.flush();
+    }
 
-            for (SlimeChunk chunk : sortedChunks) {
-                int bitsetIndex = (chunk.getZ() - minZ) * width + (chunk.getX() - minX);
+    private static void writeBaseWorld(DataOutputStream outStream, BaseWorld baseWorld, Set<Long> removedChunks) throws IOException {
+        if (baseWorld != null) {
+            outStream.writeUTF(baseWorld.getName());
+            outStream.write(baseWorld.getHash());
+            outStream.writeInt(removedChunks.size());
 
-                chunkBitset.set(bitsetIndex, true);
+            for (long index : removedChunks) {
+                outStream.writeLong(index);
             }
+        }
+    }
 
-            int chunkMaskSize = (int) Math.ceil((width * depth) / 8.0D);
-            writeBitSetAsBytes(outStream, chunkBitset, chunkMaskSize);
+    // Every region is written as its own chunk frame, and listed in the region index along with its size. Everything that
+    // comes before the regions is prefixed with its size, so the index can be read without reading the regions
+    private void writeRegions(DataOutputStream outStream, List<SlimeChunk> sortedChunks, BaseWorld baseWorld, Set<Long> removedChunks,
+                              boolean sharedSections) throws IOException {
+        Map<Long, List<SlimeChunk>> regionChunks = new TreeMap<>();
+
+        for (SlimeChunk chunk : sortedChunks) {
+            long regionIndex = (long) (chunk.getZ() >> 5) * Integer.MAX_VALUE + (long) (chunk.getX() >> 5);
+            regionChunks.computeIfAbsent(regionIndex, index -> new ArrayList<>()).add(chunk);
+        }
 
-            // Chunks
-            byte[] chunkData = serializeChunks(sortedChunks);
-            byte[] compressedChunkData = Zstd.compress(chunkData);
+        ByteArrayOutputStream metadataByteStream = new ByteArrayOutputStream();
+        DataOutputStream metadataStream = new DataOutputStream(metadataByteStream);
+        List<byte[]> regionFrames = new ArrayList<>(regionChunks.size());
 
-            outStream.writeInt(compressedChunkData.length);
-            outStream.writeInt(chunkData.length);
-            outStream.write(compressedChunkData);
+        writeBaseWorld(metadataStream, baseWorld, removedChunks);
+        metadataStream.writeInt(regionChunks.size());
 
-            // Tile Entities
-            List<CompoundTag> tileEntitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getTileEntities().stream()).collect(Collectors.toList());
-            ListTag<CompoundTag> tileEntitiesNbtList = new ListTag<>("tiles", CompoundTag.class, tileEntitiesList);
-            CompoundTag tileEntitiesCompound = new CompoundTag("", new CompoundMap(Collections.singletonList(tileEntitiesNbtList)));
-            byte[] tileEntitiesData = serializeCompoundTag(tileEntitiesCompound);
-            byte[] compressedTileEntitiesData = Zstd.compress(tileEntitiesData);
+        for (List<SlimeChunk> chunks : regionChunks.values()) {
+            int regionX = chunks.get(0).getX() >> 5;
+            int regionZ = chunks.get(0).getZ() >> 5;
 
-            outStream.writeInt(compressedTileEntitiesData.length);
-            outStream.writeInt(tileEntitiesData.length);
-            outStream.write(compressedTileEntitiesData);
+            ByteArrayOutputStream frameByteStream = new ByteArrayOutputStream();
+            writeChunkFrame(new DataOutputStream(frameByteStream), chunks, regionX * SlimeFormat.REGION_SIZE, regionZ * SlimeFormat.REGION_SIZE,
+                    SlimeFormat.REGION_SIZE, SlimeFormat.REGION_SIZE, sharedSections);
+            byte[] regionFrame = frameByteStream.toByteArray();
 
-            // Entities
-            List<CompoundTag> entitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getEntities().stream()).collect(Collectors.toList());
+            metadataStream.writeInt(regionX);
+            metadataStream.writeInt(regionZ);
+            metadataStream.writeInt(regionFrame.length);
+            regionFrames.add(regionFrame);
+        }
 
-            outStream.writeBoolean(!entitiesList.isEmpty());
+        writeExtraTag(metadataStream);
 
-            if (!entitiesList.isEmpty()) {
-                ListTag<CompoundTag> entitiesNbtList = new ListTag<>("entities", CompoundTag.class, entitiesList);
-                CompoundTag entitiesCompound = new CompoundTag("", new CompoundMap(Collections.singletonList(entitiesNbtList)));
-                byte[] entitiesData = serializeCompoundTag(entitiesCompound);
-                byte[] compressedEntitiesData = Zstd.compress(entitiesData);
+        outStream.writeInt(metadataByteStream.size());
+        metadataByteStream.writeTo(outStream);
 
-                outStream.writeInt(compressedEntitiesData.length);
-                outStream.writeInt(entitiesData.length);
-                outStream.write(compressedEntitiesData);
-            }
+        for (byte[] regionFrame : regionFrames) {
+            outStream.write(regionFrame);
+        }
+    }
 
-            // Extra Tag
-            byte[] extra = serializeCompoundTag(extraData);
-            byte[] compressedExtra = Zstd.compress(extra);
+    // Chunk bitmask, chunks, tile entities and entities of the chunks inside the given area
+    private static void writeChunkFrame(DataOutputStream outStream, List<SlimeChunk> sortedChunks, int minX, int minZ, int width, int depth,
+                                        boolean sharedSections) throws IOException {
+        // Chunk Bitmask
+        BitSet chunkBitset = new BitSet(width * depth);
 
-            outStream.writeInt(compressedExtra.length);
-            outStream.writeInt(extra.length);
-            outStream.write(compressedExtra);
-        } catch (IOException ex) { // Ignore
-            ex.printStackTrace();
+        for (SlimeChunk chunk : sortedChunks) {
+            int bitsetIndex = (chunk.getZ() - minZ) * width + (chunk.getX() - minX);
+
+            chunkBitset.set(bitsetIndex, true);
         }
 
-        return outByteStream.toByteArray();
+        int chunkMaskSize = (int) Math.ceil((width * depth) / 8.0D);
+        writeBitSetAsBytes(outStream, chunkBitset, chunkMaskSize);
+
+        // Chunks
+        byte[] chunkData = serializeChunks(sortedChunks, sharedSections);
+        byte[] compressedChunkData = Zstd.compress(chunkData);
+
+        outStream.writeInt(compressedChunkData.length);
+        outStream.writeInt(chunkData.length);
+        outStream.write(compressedChunkData);
+
+        // Tile Entities
+        List<CompoundTag> tileEntitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getTileEntities().stream()).collect(Collectors.toList());
+        byte[] tileEntitiesData = serializeCompoundList("tiles", tileEntitiesList);
+        byte[] compressedTileEntitiesData = Zstd.compress(tileEntitiesData);
+
+        outStream.writeInt(compressedTileEntitiesData.length);
+        outStream.writeInt(tileEntitiesData.length);
+        outStream.write(compressedTileEntitiesData);
+
+        // Entities
+        List<CompoundTag> entitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getEntities().stream()).collect(Collectors.toList());
+
+        outStream.writeBoolean(!entitiesList.isEmpty());
+
+        if (!entitiesList.isEmpty()) {
+            byte[] entitiesData = serializeCompoundList("entities", entitiesList);
+            byte[] compressedEntitiesData = Zstd.compress(entitiesData);
+
+            outStream.writeInt(compressedEntitiesData.length);
+            outStream.writeInt(entitiesData.length);
+            outStream.write(compressedEntitiesData);
+        }
+    }
+
+    private void writeExtraTag(DataOutputStream outStream) throws IOException {
+        byte[] extra = serializeCompoundTag(extraData);
+        byte[] compressedExtra = Zstd.compress(extra);
+
+        outStream.writeInt(compressedExtra.length);
+        outStream.writeInt(extra.length);
+        outStream.write(compressedExtra);
+    }
+
+    // Hash of everything stored for a chunk, used to find out whether it differs from the same chunk of the base world
+    public static HashCode hashChunk(SlimeChunk chunk) throws IOException {
+        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream(16384);
+        DataOutputStream outStream = new DataOutputStream(outByteStream);
+
+        serializeChunk(outStream, chunk);
+
+        for (CompoundTag tag : chunk.getTileEntities()) {
+            outStream.write(RawCompoundTag.serializePayload(tag));
+        }
+
+        outStream.writeByte(0); // Keeps tile entities and entities apart
+
+        for (CompoundTag tag : chunk.getEntities()) {
+            outStream.write(RawCompoundTag.serializePayload(tag));
+        }
+
+        return CHUNK_HASH_FUNCTION.hashBytes(outByteStream.toByteArray());
     }
 
     private static void writeBitSetAsBytes(DataOutputStream outStream, BitSet set, int fixedSize) throws IOException {
@@ -169,39 +685,87 @@ public class CraftSlimeWorld implements SlimeWorld {
         }
     }
 
-    private static byte[] serializeChunks(List<SlimeChunk> chunks) throws IOException {
+    private static byte[] serializeChunks(List<SlimeChunk> chunks, boolean sharedSections) throws IOException {
         ByteArrayOutputStream outByteStream = new ByteArrayOutputStream(16384);
         DataOutputStream outStream = new DataOutputStream(outByteStream);
 
         for (SlimeChunk chunk : chunks) {
-            for (int value : chunk.getHeightMap()) {
-                outStream.writeInt(value);
-            }
+            serializeChunk(outStream, chunk, sharedSections);
+        }
 
-            outStream.write(chunk.getBiomes());
+        return outByteStream.toByteArray();
+    }
 
-            SlimeChunkSection[] sections = chunk.getSections();
-            BitSet sectionBitmask = new BitSet(16);
+    static void serializeChunk(DataOutputStream outStream, SlimeChunk chunk) throws IOException {
+        serializeChunk(outStream, chunk, false);
+    }
 
-            for (int i = 0; i < sections.length; i++) {
-                sectionBitmask.set(i, sections[i] != null);
+    private static void serializeChunk(DataOutputStream outStream, SlimeChunk chunk, boolean sharedSections) throws IOException {
+        for (int value : chunk.getHeightMap()) {
+            outStream.writeInt(value);
+        }
+
+        outStream.write(chunk.getBiomes());
+
+        SlimeChunkSection[] sections = chunk.getSections();
+        BitSet sectionBitmask = new BitSet(16);
+
+        for (int i = 0; i < sections.length; i++) {
+            sectionBitmask.set(i, sections[i] != null);
+        }
+
+        writeBitSetAsBytes(outStream, sectionBitmask, 2);
+
+        // Off-heap sections are already in the right layout, so they're copied in one go instead of through their getters
+        byte[] sectionData = null;
+
+        for (SlimeChunkSection section : sections) {
+            if (section == null) {
+                continue;
             }
 
-            writeBitSetAsBytes(outStream, sectionBitmask, 2);
+            if (sharedSections) {
+                outStream.write(SectionStore.store(section));
+                continue;
+            }
 
-            for (SlimeChunkSection section : sections) {
-                if (section == null) {
-                    continue;
+            if (section instanceof OffHeapSlimeChunkSection) {
+                if (sectionData == null) {
+                    sectionData = new byte[SectionArena.SECTION_SIZE];
                 }
 
-                outStream.write(section.getBlockLight().getBacking());
-                outStream.write(section.getBlocks());
-                outStream.write(section.getData().getBacking());
-                outStream.write(section.getSkyLight().getBacking());
+                ((OffHeapSlimeChunkSection) section).copyTo(sectionData);
+                outStream.write(sectionData);
                 outStream.writeShort(0); // HypixelBlocks 3
+                continue;
             }
+
+            section.getBlockLight().write(outStream);
+            outStream.write(section.getBlocks());
+            section.getData().write(outStream);
+            section.getSkyLight().write(outStream);
+            outStream.writeShort(0); // HypixelBlocks 3
+        }
+    }
+
+    // Same as serializing a compound that only contains a list of compounds, but raw tags are written without being parsed
+    private static byte[] serializeCompoundList(String name, List<CompoundTag> tags) throws IOException {
+        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
+        DataOutputStream outStream = new DataOutputStream(outByteStream);
+
+        outStream.writeByte(10); // Root compound
+        outStream.writeUTF("");
+        outStream.writeByte(9); // List
+        outStream.writeUTF(name);
+        outStream.writeByte(10); // List entries type
+        outStream.writeInt(tags.size());
+
+        for (CompoundTag tag : tags) {
+            outStream.write(RawCompoundTag.serializePayload(tag));
         }
 
+        outStream.writeByte(0); // Root compound end
+
         return outByteStream.toByteArray();
     }
 
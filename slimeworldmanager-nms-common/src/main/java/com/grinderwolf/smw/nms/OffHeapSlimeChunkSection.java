@@ -0,0 +1,84 @@
+package com.grinderwolf.smw.nms;
+
+import com.grinderwolf.smw.api.utils.NibbleArray;
+import com.grinderwolf.smw.api.world.SlimeChunkSection;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.ByteBuffer;
+
+// Section stored inside a SectionArena. Every getter returns a copy of the data, so code that reads a lot of sections should
+// use the methods below, which read straight from the buffer. The data is only valid until the arena frees the section
+@RequiredArgsConstructor
+public class OffHeapSlimeChunkSection implements SlimeChunkSection {
+
+    private static final int BLOCK_LIGHT_OFFSET = 0;
+    private static final int BLOCKS_OFFSET = 2048;
+    private static final int DATA_OFFSET = 6144;
+    private static final int SKY_LIGHT_OFFSET = 8192;
+
+    private final ByteBuffer buffer;
+
+    @Getter(value = AccessLevel.PACKAGE)
+    private final SectionArena arena;
+    @Getter(value = AccessLevel.PACKAGE)
+    private final int slot;
+
+    @Override
+    public byte[] getBlocks() {
+        return read(BLOCKS_OFFSET, 4096);
+    }
+
+    @Override
+    public NibbleArray getData() {
+        return new NibbleArray(read(DATA_OFFSET, 2048));
+    }
+
+    @Override
+    public NibbleArray getBlockLight() {
+        return new NibbleArray(read(BLOCK_LIGHT_OFFSET, 2048));
+    }
+
+    @Override
+    public NibbleArray getSkyLight() {
+        return new NibbleArray(read(SKY_LIGHT_OFFSET, 2048));
+    }
+
+    public int getBlockId(int index) {
+        return buffer.get(BLOCKS_OFFSET + index) & 255;
+    }
+
+    public int getBlockData(int index) {
+        int value = buffer.get(DATA_OFFSET + index / 2);
+
+        return index % 2 == 0 ? value & 0xF : (value & 0xF0) >> 4;
+    }
+
+    // Light arrays are returned as a single copy that can be handed over as it is
+    public byte[] copyBlockLight() {
+        return read(BLOCK_LIGHT_OFFSET, 2048);
+    }
+
+    public byte[] copySkyLight() {
+        return read(SKY_LIGHT_OFFSET, 2048);
+    }
+
+    // Copies the whole section in the Slime format layout
+    public void copyTo(byte[] sectionData) {
+        ByteBuffer buffer = this.buffer.duplicate();
+
+        buffer.position(0);
+        buffer.get(sectionData, 0, SectionArena.SECTION_SIZE);
+    }
+
+    private byte[] read(int offset, int length) {
+        byte[] data = new byte[length];
+        ByteBuffer buffer = this.buffer.duplicate();
+
+        buffer.position(offset);
+        buffer.get(data);
+
+        return data;
+    }
+}
@@ -0,0 +1,86 @@
+package com.grinderwolf.smw.nms;
+
+import com.flowpowered.nbt.CompoundMap;
+import com.flowpowered.nbt.CompoundTag;
+import com.flowpowered.nbt.stream.NBTInputStream;
+import com.flowpowered.nbt.stream.NBTOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Compound tag that keeps its serialized payload (everything after the tag type and name), and only parses it when its value is accessed.
+// This way, tags can be moved between the Slime format and NMS without building a flow-nbt tree
+public class RawCompoundTag extends CompoundTag {
+
+    // Tag type (compound) and empty name
+    private static final byte[] COMPOUND_HEADER = { 10, 0, 0 };
+
+    private byte[] payload;
+    private CompoundMap value;
+
+    public RawCompoundTag(String name, byte[] payload) {
+        super(name, null);
+
+        this.payload = payload;
+    }
+
+    // Returns the serialized payload, or null if the value has already been parsed (and might have been modified)
+    public synchronized byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public synchronized CompoundMap getValue() {
+        if (value == null) {
+            try {
+                NBTInputStream stream = new NBTInputStream(new SequenceInputStream(new ByteArrayInputStream(COMPOUND_HEADER),
+                        new ByteArrayInputStream(payload)), false, ByteOrder.BIG_ENDIAN);
+                value = ((CompoundTag) stream.readTag()).getValue();
+                payload = null;
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to parse compound tag " + getName(), ex);
+            }
+        }
+
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return new CompoundTag(getName(), getValue()).toString();
+    }
+
+    @Override
+    public CompoundTag clone() {
+        synchronized (this) {
+            if (payload != null) {
+                return new RawCompoundTag(getName(), payload);
+            }
+        }
+
+        return new CompoundTag(getName(), getValue()).clone();
+    }
+
+    // Serializes the payload of any compound tag, without parsing it again if it's a raw one
+    public static byte[] serializePayload(CompoundTag tag) throws IOException {
+        if (tag instanceof RawCompoundTag) {
+            byte[] payload = ((RawCompoundTag) tag).getPayload();
+
+            if (payload != null) {
+                return payload;
+            }
+        }
+
+        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
+        NBTOutputStream outStream = new NBTOutputStream(outByteStream, false, ByteOrder.BIG_ENDIAN);
+        outStream.writeTag(new CompoundTag("", tag.getValue()));
+
+        byte[] serializedTag = outByteStream.toByteArray();
+
+        return Arrays.copyOfRange(serializedTag, COMPOUND_HEADER.length, serializedTag.length);
+    }
+}
@@ -0,0 +1,98 @@
+package com.grinderwolf.smw.nms;
+
+import com.grinderwolf.smw.api.world.SlimeChunkSection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// Keeps the section data of a world in a few big direct buffers, so it doesn't have to be scanned or moved around by the GC
+public class SectionArena {
+
+    // Block light, blocks, block data and sky light, in the same order as the Slime format
+    public static final int SECTION_SIZE = 2048 + 4096 + 2048 + 2048;
+    private static final int SECTIONS_PER_SLAB = 512;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int nextSlot;
+
+    // Sections are freed as soon as their chunk is replaced or dropped from memory. Sections freed while someone is reading
+    // sections outside of the chunks lock are only reused once every reader is done
+    private final List<Integer> pendingSlots = new ArrayList<>();
+    private int readers;
+
+    public SlimeChunkSection store(SlimeChunkSection section) {
+        byte[] sectionData = new byte[SECTION_SIZE];
+        copySection(section, sectionData);
+
+        return store(sectionData);
+    }
+
+    // Stores a section in the Slime format layout. The array can be reused afterwards
+    public synchronized SlimeChunkSection store(byte[] sectionData) {
+        int slot = allocateSlot();
+        ByteBuffer buffer = slabs.get(slot / SECTIONS_PER_SLAB).duplicate();
+        int offset = (slot % SECTIONS_PER_SLAB) * SECTION_SIZE;
+
+        buffer.position(offset);
+        buffer.put(sectionData, 0, SECTION_SIZE);
+        buffer.position(offset);
+        buffer.limit(offset + SECTION_SIZE);
+
+        return new OffHeapSlimeChunkSection(buffer.slice(), this, slot);
+    }
+
+    private int allocateSlot() {
+        if (!freeSlots.isEmpty()) {
+            return freeSlots.pop();
+        }
+
+        if (nextSlot == slabs.size() * SECTIONS_PER_SLAB) {
+            slabs.add(ByteBuffer.allocateDirect(SECTIONS_PER_SLAB * SECTION_SIZE));
+        }
+
+        return nextSlot++;
+    }
+
+    // Sections that weren't stored in this arena are ignored
+    public synchronized void free(SlimeChunkSection section) {
+        if (!(section instanceof OffHeapSlimeChunkSection) || ((OffHeapSlimeChunkSection) section).getArena() != this) {
+            return;
+        }
+
+        int slot = ((OffHeapSlimeChunkSection) section).getSlot();
+
+        if (readers == 0) {
+            freeSlots.push(slot);
+        } else {
+            pendingSlots.add(slot);
+        }
+    }
+
+    public synchronized void startReading() {
+        readers++;
+    }
+
+    public synchronized void stopReading() {
+        if (--readers == 0) {
+            freeSlots.addAll(pendingSlots);
+            pendingSlots.clear();
+        }
+    }
+
+    // Copies a section in the Slime format layout
+    public static void copySection(SlimeChunkSection section, byte[] sectionData) {
+        if (section instanceof OffHeapSlimeChunkSection) {
+            ((OffHeapSlimeChunkSection) section).copyTo(sectionData);
+            return;
+        }
+
+        System.arraycopy(section.getBlockLight().getBacking(), 0, sectionData, 0, 2048);
+        System.arraycopy(section.getBlocks(), 0, sectionData, 2048, 4096);
+        System.arraycopy(section.getData().getBacking(), 0, sectionData, 6144, 2048);
+        System.arraycopy(section.getSkyLight().getBacking(), 0, sectionData, 8192, 2048);
+    }
+}
@@ -0,0 +1,117 @@
+package com.grinderwolf.smw.nms;
+
+import com.github.luben.zstd.Zstd;
+import com.google.common.collect.MapMaker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.grinderwolf.smw.api.utils.NibbleArray;
+import com.grinderwolf.smw.api.world.SlimeChunkSection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Content-addressed repository of chunk sections, shared by all the worlds of the server. Sections are identified by a hash
+// of their data, so identical sections are only stored once on disk, and only loaded once in memory
+public class SectionStore {
+
+    public static final int HASH_LENGTH = 16;
+
+    private static final File SECTIONS_DIR = new File("slime_sections");
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    // Loaded sections are shared by every world using them. Sections are never modified after being loaded, as NMS copies them
+    private static final ConcurrentMap<HashCode, SlimeChunkSection> loadedSections = new MapMaker().weakValues().makeMap();
+
+    // Sections known to be on disk, so they don't have to be looked up on every save. Sections are only added once they're on disk
+    private static final Set<HashCode> storedSections = ConcurrentHashMap.newKeySet();
+
+    // Stores a section if it's not in the repository yet, and returns its hash
+    public static byte[] store(SlimeChunkSection section) throws IOException {
+        byte[] sectionData = new byte[SectionArena.SECTION_SIZE];
+        SectionArena.copySection(section, sectionData);
+
+        HashCode hash = HASH_FUNCTION.hashBytes(sectionData);
+
+        // Worlds saving the same section at the same time all write it, so none of them finishes before the section is on disk.
+        // Every one of them uses its own temporary file, and the last move wins
+        if (!storedSections.contains(hash)) {
+            File file = getFile(hash);
+
+            if (!file.exists()) {
+                file.getParentFile().mkdirs();
+                Path tempFile = Files.createTempFile(file.getParentFile().toPath(), hash.toString(), ".tmp");
+
+                try {
+                    // Synced before being moved, as the worlds referencing it are synced when they're saved
+                    try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                        ByteBuffer buffer = ByteBuffer.wrap(Zstd.compress(sectionData));
+
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+
+                        channel.force(true);
+                    }
+
+                    Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+
+            storedSections.add(hash);
+        }
+
+        return hash.asBytes();
+    }
+
+    public static SlimeChunkSection load(byte[] hashBytes) throws IOException {
+        HashCode hash = HashCode.fromBytes(hashBytes);
+        SlimeChunkSection section = loadedSections.get(hash);
+
+        if (section != null) {
+            return section;
+        }
+
+        byte[] sectionData;
+
+        try {
+            sectionData = Zstd.decompress(Files.readAllBytes(getFile(hash).toPath()), SectionArena.SECTION_SIZE);
+        } catch (NoSuchFileException ex) {
+            throw new IOException("Section " + hash + " is missing from the section repository");
+        }
+
+        if (sectionData.length != SectionArena.SECTION_SIZE || !HASH_FUNCTION.hashBytes(sectionData).equals(hash)) {
+            throw new IOException("Section " + hash + " is corrupted in the section repository");
+        }
+
+        // The light and block data nibble arrays share the decompressed array
+        section = new CraftSlimeChunkSection(Arrays.copyOfRange(sectionData, 2048, 6144), new NibbleArray(sectionData, 6144, 4096),
+                new NibbleArray(sectionData, 0, 4096), new NibbleArray(sectionData, 8192, 4096));
+        storedSections.add(hash);
+
+        // Marked before anyone else can get it, so no world counts it as its own memory
+        WorldMemoryTracker.markShared(section);
+        SlimeChunkSection loadedSection = loadedSections.putIfAbsent(hash, section);
+
+        return loadedSection != null ? loadedSection : section;
+    }
+
+    private static File getFile(HashCode hash) {
+        String hashString = hash.toString();
+
+        return new File(new File(SECTIONS_DIR, hashString.substring(0, 2)), hashString + ".section");
+    }
+}
@@ -3,8 +3,14 @@ package com.grinderwolf.smw.nms;
 import com.grinderwolf.smw.api.world.SlimeWorld;
 import org.bukkit.World;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface SlimeNMS {
 
     public void generateWorld(SlimeWorld world);
     public SlimeWorld getSlimeWorld(World world);
+    public void setGlobalChunkLoadBudget(int budget);
+
+    // Writes the loaded chunks to the slime world and saves it asynchronously. The future is completed once the world has been saved
+    public CompletableFuture<Void> saveWorld(World world);
 }
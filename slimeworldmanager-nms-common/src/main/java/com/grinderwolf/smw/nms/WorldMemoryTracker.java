@@ -0,0 +1,222 @@
+package com.grinderwolf.smw.nms;
+
+import com.flowpowered.nbt.CompoundTag;
+import com.flowpowered.nbt.ListTag;
+import com.flowpowered.nbt.Tag;
+import com.google.common.collect.MapMaker;
+import com.grinderwolf.smw.api.utils.NibbleArray;
+import com.grinderwolf.smw.api.world.SlimeChunk;
+import com.grinderwolf.smw.api.world.SlimeChunkSection;
+import com.grinderwolf.smw.api.world.WorldMemoryUsage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Keeps track of the memory used by the chunks of a world as they're added and removed, so it never has to walk through all of them.
+// The usage of every chunk is stored when it's added, so tags that get parsed afterwards don't make the totals drift.
+// Memory that several chunks (slabs) or several worlds (shared sections) point to is counted once, when the first chunk using
+// it is added, and it's not owned by any single chunk, so dropping a chunk never counts it as freed
+public class WorldMemoryTracker {
+
+    private static final int SECTIONS = 0;
+    private static final int OFF_HEAP_SECTIONS = 1;
+    private static final int SLAB_SECTIONS = 2;
+    private static final int SHARED_SECTIONS = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int ENTITIES = 5;
+    private static final int SERIALIZED_TAGS = 6;
+    private static final int COMPRESSED_CHUNKS = 7;
+    private static final int CATEGORIES = 8;
+
+    // Sections used by more than one world, like the ones of the section repository and of base worlds. Compared by identity
+    private static final Set<SlimeChunkSection> sharedSections = Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
+    private final Map<Long, ChunkUsage> chunkUsages = new HashMap<>();
+    private final Map<Object, Integer> references = new IdentityHashMap<>();
+    private final long[] totalUsage = new long[CATEGORIES];
+    private int loadedChunks;
+    private int compressedChunks;
+
+    public static void markShared(SlimeChunkSection section) {
+        sharedSections.add(section);
+    }
+
+    void track(Long index, SlimeChunk chunk) {
+        ChunkUsage usage = new ChunkUsage(false);
+        usage.values[CHUNK_DATA] = chunk.getHeightMap().length * 4 + chunk.getBiomes().length;
+        addTagsSize(usage, chunk.getTileEntities());
+        addTagsSize(usage, chunk.getEntities());
+
+        for (SlimeChunkSection section : chunk.getSections()) {
+            if (section == null) {
+                continue;
+            }
+
+            if (section instanceof OffHeapSlimeChunkSection) {
+                usage.values[OFF_HEAP_SECTIONS] += SectionArena.SECTION_SIZE;
+            } else if (sharedSections.contains(section)) {
+                usage.references.add(section);
+            } else {
+                usage.values[SECTIONS] += section.getBlocks().length;
+                addNibbleArraySize(usage, section.getData());
+                addNibbleArraySize(usage, section.getBlockLight());
+                addNibbleArraySize(usage, section.getSkyLight());
+            }
+        }
+
+        untrack(index);
+        add(index, usage);
+    }
+
+    void track(Long index, CompressedSlimeChunk chunk) {
+        ChunkUsage usage = new ChunkUsage(true);
+        usage.values[COMPRESSED_CHUNKS] = chunk.getCompressedData().length;
+        addTagsSize(usage, chunk.getTileEntities());
+        addTagsSize(usage, chunk.getEntities());
+
+        untrack(index);
+        add(index, usage);
+    }
+
+    void untrack(Long index) {
+        ChunkUsage usage = chunkUsages.remove(index);
+
+        if (usage == null) {
+            return;
+        }
+
+        for (int i = 0; i < CATEGORIES; i++) {
+            totalUsage[i] -= usage.values[i];
+        }
+
+        for (Object reference : usage.references) {
+            int count = references.get(reference) - 1;
+
+            if (count == 0) {
+                references.remove(reference);
+                totalUsage[getCategory(reference)] -= getSize(reference);
+            } else {
+                references.put(reference, count);
+            }
+        }
+
+        if (usage.compressed) {
+            compressedChunks--;
+        } else {
+            loadedChunks--;
+        }
+    }
+
+    private void add(Long index, ChunkUsage usage) {
+        chunkUsages.put(index, usage);
+
+        for (int i = 0; i < CATEGORIES; i++) {
+            totalUsage[i] += usage.values[i];
+        }
+
+        for (Object reference : usage.references) {
+            if (references.merge(reference, 1, Integer::sum) == 1) {
+                totalUsage[getCategory(reference)] += getSize(reference);
+            }
+        }
+
+        if (usage.compressed) {
+            compressedChunks++;
+        } else {
+            loadedChunks++;
+        }
+    }
+
+    // Memory freed by dropping every chunk of the world. Shared sections are still used by other worlds, so they're left out
+    long getOwnedUsage() {
+        long total = 0;
+
+        for (int i = 0; i < CATEGORIES; i++) {
+            if (i != SHARED_SECTIONS) {
+                total += totalUsage[i];
+            }
+        }
+
+        return total;
+    }
+
+    WorldMemoryUsage getMemoryUsage() {
+        return new WorldMemoryUsage(totalUsage[SECTIONS], totalUsage[OFF_HEAP_SECTIONS], totalUsage[SLAB_SECTIONS],
+                totalUsage[SHARED_SECTIONS], totalUsage[CHUNK_DATA], totalUsage[ENTITIES], totalUsage[SERIALIZED_TAGS],
+                totalUsage[COMPRESSED_CHUNKS], loadedChunks, compressedChunks);
+    }
+
+    // Nibble arrays loaded with slab allocation share their backing array, which is kept alive until all of them are gone
+    private static void addNibbleArraySize(ChunkUsage usage, NibbleArray nibbleArray) {
+        if (nibbleArray.isSlice()) {
+            usage.references.add(nibbleArray.getBackingArray());
+        } else {
+            usage.values[SECTIONS] += nibbleArray.getBackingArray().length;
+        }
+    }
+
+    private static int getCategory(Object reference) {
+        return reference instanceof byte[] ? SLAB_SECTIONS : SHARED_SECTIONS;
+    }
+
+    private static long getSize(Object reference) {
+        return reference instanceof byte[] ? ((byte[]) reference).length : SectionArena.SECTION_SIZE;
+    }
+
+    // Tags that haven't been parsed yet are just their serialized form
+    private static void addTagsSize(ChunkUsage usage, List<CompoundTag> tags) {
+        for (CompoundTag tag : tags) {
+            byte[] payload = tag instanceof RawCompoundTag ? ((RawCompoundTag) tag).getPayload() : null;
+
+            if (payload != null) {
+                usage.values[SERIALIZED_TAGS] += payload.length;
+            } else {
+                usage.values[ENTITIES] += estimateSize(tag);
+            }
+        }
+    }
+
+    // Rough size of a parsed tag: the tag object, its name and its value
+    private static long estimateSize(Tag<?> tag) {
+        long size = 32 + tag.getName().length() * 2;
+        Object value = tag.getValue();
+
+        if (tag instanceof CompoundTag) {
+            for (Tag<?> child : ((CompoundTag) tag).getValue().values()) {
+                size += 48 + estimateSize(child); // Map entry
+            }
+        } else if (tag instanceof ListTag) {
+            for (Object child : ((ListTag<?>) tag).getValue()) {
+                size += 8 + estimateSize((Tag<?>) child);
+            }
+        } else if (value instanceof byte[]) {
+            size += ((byte[]) value).length;
+        } else if (value instanceof int[]) {
+            size += ((int[]) value).length * 4;
+        } else if (value instanceof String) {
+            size += 40 + ((String) value).length() * 2;
+        } else {
+            size += 16; // Boxed number
+        }
+
+        return size;
+    }
+
+    private static class ChunkUsage {
+
+        private final boolean compressed;
+        private final long[] values = new long[CATEGORIES];
+
+        // Slabs and shared sections used by the chunk
+        private final List<Object> references = new ArrayList<>();
+
+        private ChunkUsage(boolean compressed) {
+            this.compressed = compressed;
+        }
+    }
+}
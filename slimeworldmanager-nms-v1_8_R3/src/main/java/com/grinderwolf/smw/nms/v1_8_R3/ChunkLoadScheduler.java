@@ -0,0 +1,422 @@
+package com.grinderwolf.smw.nms.v1_8_R3;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.grinderwolf.smw.api.world.EntityLoadMode;
+import com.grinderwolf.smw.api.world.SlimeChunk;
+import net.minecraft.server.v1_8_R3.Chunk;
+import net.minecraft.server.v1_8_R3.EntityHuman;
+import net.minecraft.server.v1_8_R3.MinecraftServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bukkit.craftbukkit.v1_8_R3.util.LongHash;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class ChunkLoadScheduler {
+
+    private static final Logger LOGGER = LogManager.getLogger("SMW Chunk Scheduler");
+    private static final ExecutorService CHUNK_PREPARER_SERVICE = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+            .setNameFormat("SMW Chunk Thread #%1$d").setDaemon(true).build());
+    private static final ExecutorService CHUNK_COMPRESSOR_SERVICE = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("SMW Chunk Compressor").setDaemon(true).build());
+
+    // How often (in ticks) the chunks around players are prefetched, and how many of them can be submitted at once
+    private static final int PREFETCH_INTERVAL = 20;
+    private static final int MAX_PREFETCHED_CHUNKS = 64;
+
+    // How often (in ticks) idle chunks are compressed
+    private static final int COMPRESSION_INTERVAL = 200;
+
+    // Time budget shared by all the slime worlds. These are only accessed from the main thread
+    private static long globalBudget;
+    private static long globalSpentTime;
+    private static int globalTick = -1;
+
+    private final CustomWorldServer world;
+    private final CustomChunkLoader chunkLoader;
+
+    private long spentTime;
+    private int currentTick = -1;
+    private int ticks;
+
+    // Whether the idle chunks picked last time are still being compressed
+    private volatile boolean compressing;
+
+    // Chunks whose entities and tile entities couldn't be loaded because the budget ran out
+    private final Map<Long, DeferredChunk> deferredChunks = new HashMap<>();
+
+    // Prefetching. Chunks close to a player are never dropped from memory, so loading them never has to read from the world storage
+    private final Set<Long> preparingChunks = ConcurrentHashMap.newKeySet();
+    private final Set<Long> prefetchedChunks = new HashSet<>();
+    private Set<Long> nearbyChunks = new HashSet<>();
+
+    // Spawn preloading
+    private final Queue<int[]> readySpawnChunks = new ConcurrentLinkedQueue<>();
+    private int totalSpawnChunks;
+    private int loadedSpawnChunks;
+    private long spawnStartTime;
+    private long lastSpawnReport;
+
+    public ChunkLoadScheduler(CustomWorldServer world, CustomChunkLoader chunkLoader) {
+        this.world = world;
+        this.chunkLoader = chunkLoader;
+    }
+
+    public static void setGlobalBudget(int budget) {
+        globalBudget = TimeUnit.MILLISECONDS.toNanos(budget);
+    }
+
+    // Budget
+
+    private void refreshBudget() {
+        int tick = MinecraftServer.currentTick;
+
+        if (currentTick != tick) {
+            currentTick = tick;
+            spentTime = 0;
+        }
+
+        if (globalTick != tick) {
+            globalTick = tick;
+            globalSpentTime = 0;
+        }
+    }
+
+    public boolean hasBudgetLeft() {
+        refreshBudget();
+        long worldBudget = TimeUnit.MILLISECONDS.toNanos(world.getSlimeWorld().getProperties().getChunkLoadBudget());
+
+        return (worldBudget == 0 || spentTime < worldBudget) && (globalBudget == 0 || globalSpentTime < globalBudget);
+    }
+
+    public void consumeBudget(long time) {
+        refreshBudget();
+        spentTime += time;
+        globalSpentTime += time;
+    }
+
+    // Deferred entities
+
+    // Whether the entities of a chunk that's being loaded right now have to wait for a later tick
+    public boolean shouldDeferEntities() {
+        return getEntityLoadMode() != EntityLoadMode.IMMEDIATE || !hasBudgetLeft();
+    }
+
+    private EntityLoadMode getEntityLoadMode() {
+        return world.getSlimeWorld().getProperties().getEntityLoadMode();
+    }
+
+    public void deferEntities(Chunk chunk, PreparedChunk preparedChunk) {
+        deferredChunks.put(LongHash.toLong(chunk.locX, chunk.locZ), new DeferredChunk(chunk, preparedChunk));
+    }
+
+    // Returns the chunk data whose entities haven't been added to the provided chunk yet
+    public PreparedChunk getDeferredChunk(Chunk chunk) {
+        DeferredChunk deferredChunk = deferredChunks.get(LongHash.toLong(chunk.locX, chunk.locZ));
+
+        return deferredChunk != null && deferredChunk.getChunk() == chunk ? deferredChunk.getPreparedChunk() : null;
+    }
+
+    private void loadDeferredEntities() {
+        if (deferredChunks.isEmpty()) {
+            return;
+        }
+
+        List<DeferredChunk> chunks = new ArrayList<>();
+
+        for (Iterator<DeferredChunk> iterator = deferredChunks.values().iterator(); iterator.hasNext(); ) {
+            DeferredChunk deferredChunk = iterator.next();
+
+            // If the chunk got unloaded in the meantime, its entities were saved along with it
+            if (!isLoaded(deferredChunk.getChunk())) {
+                iterator.remove();
+            } else if (getEntityLoadMode() != EntityLoadMode.TRACKING_RANGE || isTracked(deferredChunk.getChunk())) {
+                chunks.add(deferredChunk);
+            }
+        }
+
+        chunks.sort(Comparator.comparingDouble(chunk -> getPriority(chunk.getChunk().locX, chunk.getChunk().locZ)));
+
+        for (DeferredChunk deferredChunk : chunks) {
+            if (!hasBudgetLeft()) {
+                break;
+            }
+
+            Chunk chunk = deferredChunk.getChunk();
+            deferredChunks.remove(LongHash.toLong(chunk.locX, chunk.locZ));
+
+            long start = System.nanoTime();
+            chunkLoader.loadEntities(chunk, deferredChunk.getPreparedChunk(), true);
+            consumeBudget(System.nanoTime() - start);
+        }
+    }
+
+    // Whether any player is close enough to the chunk to see the entities inside it
+    private boolean isTracked(Chunk chunk) {
+        int range = Math.max(Math.max(world.spigotConfig.playerTrackingRange, world.spigotConfig.animalTrackingRange),
+                Math.max(Math.max(world.spigotConfig.monsterTrackingRange, world.spigotConfig.miscTrackingRange), world.spigotConfig.otherTrackingRange));
+
+        // Measured from the chunk center, so the whole chunk has to be covered
+        range += 8;
+
+        return !world.players.isEmpty() && getPriority(chunk.locX, chunk.locZ) <= (double) range * range;
+    }
+
+    // Prefetching
+
+    private void prefetchChunks() {
+        int radius = world.spigotConfig.viewDistance + 1;
+        Set<Long> nearbyChunks = new HashSet<>();
+        List<int[]> candidates = new ArrayList<>();
+
+        for (EntityHuman player : world.players) {
+            int playerChunkX = floor(player.locX) >> 4;
+            int playerChunkZ = floor(player.locZ) >> 4;
+
+            for (int x = playerChunkX - radius; x <= playerChunkX + radius; x++) {
+                for (int z = playerChunkZ - radius; z <= playerChunkZ + radius; z++) {
+                    long index = LongHash.toLong(x, z);
+
+                    if (!nearbyChunks.add(index) || prefetchedChunks.contains(index) || preparingChunks.contains(index)
+                            || world.chunkProviderServer.isChunkLoaded(x, z) || !world.getSlimeWorld().hasChunk(x, z)) {
+                        continue;
+                    }
+
+                    candidates.add(new int[] { x, z });
+                }
+            }
+        }
+
+        this.nearbyChunks = nearbyChunks;
+
+        // Forget about the chunks no player is close to anymore
+        for (Iterator<Long> iterator = prefetchedChunks.iterator(); iterator.hasNext(); ) {
+            long index = iterator.next();
+
+            if (!nearbyChunks.contains(index)) {
+                chunkLoader.discardPreparedChunk(LongHash.msw(index), LongHash.lsw(index));
+                iterator.remove();
+            }
+        }
+
+        candidates.sort(Comparator.comparingDouble(chunk -> getPriority(chunk[0], chunk[1])));
+        List<int[]> chunks = new ArrayList<>(candidates.subList(0, Math.min(candidates.size(), MAX_PREFETCHED_CHUNKS)));
+
+        for (int[] chunk : chunks) {
+            long index = LongHash.toLong(chunk[0], chunk[1]);
+
+            prefetchedChunks.add(index);
+            preparingChunks.add(index);
+        }
+
+        prepareChunks(chunks, chunk -> preparingChunks.remove(LongHash.toLong(chunk[0], chunk[1])));
+    }
+
+    // Chunks that have been dropped from memory are read back all at once, instead of one by one while they're being prepared
+    private void prepareChunks(List<int[]> chunks, Consumer<int[]> callback) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+
+        CHUNK_PREPARER_SERVICE.execute(() -> {
+
+            try {
+                world.getSlimeWorld().readEvictedChunks(chunks);
+            } catch (Exception ex) {
+                LOGGER.error("Failed to read " + chunks.size() + " chunks on world " + world.getSlimeWorld().getName() + ":");
+                ex.printStackTrace();
+            }
+
+            for (int[] chunk : chunks) {
+                prepareChunk(chunk, () -> callback.accept(chunk));
+            }
+
+        });
+    }
+
+    private void prepareChunk(int[] chunk, Runnable callback) {
+        CHUNK_PREPARER_SERVICE.execute(() -> {
+
+            try {
+                PreparedChunk preparedChunk = chunkLoader.prepareChunk(chunk[0], chunk[1], true);
+
+                if (preparedChunk != null) {
+                    chunkLoader.cachePreparedChunk(preparedChunk);
+                }
+            } catch (Exception ex) {
+                LOGGER.error("Failed to prepare chunk (" + chunk[0] + ", " + chunk[1] + ") on world " + world.getSlimeWorld().getName() + ":");
+                ex.printStackTrace();
+            } finally {
+                callback.run();
+            }
+
+        });
+    }
+
+    // Spawn preloading
+
+    public void preloadSpawn(int spawnChunkX, int spawnChunkZ, int radius) {
+        List<int[]> chunks = new ArrayList<>();
+
+        for (int x = spawnChunkX - radius; x <= spawnChunkX + radius; x++) {
+            for (int z = spawnChunkZ - radius; z <= spawnChunkZ + radius; z++) {
+                chunks.add(new int[] { x, z });
+            }
+        }
+
+        // Closest chunks first
+        chunks.sort(Comparator.comparingInt(chunk -> Math.max(Math.abs(chunk[0] - spawnChunkX), Math.abs(chunk[1] - spawnChunkZ))));
+
+        LOGGER.info("Preparing spawn area for world " + world.getSlimeWorld().getName() + " (" + chunks.size() + " chunks)...");
+        totalSpawnChunks += chunks.size();
+        spawnStartTime = System.currentTimeMillis();
+        lastSpawnReport = spawnStartTime;
+
+        prepareChunks(chunks, readySpawnChunks::add);
+    }
+
+    private void loadSpawnChunks() {
+        if (loadedSpawnChunks == totalSpawnChunks) {
+            return;
+        }
+
+        int[] chunk;
+
+        while (hasBudgetLeft() && (chunk = readySpawnChunks.poll()) != null) {
+            if (world.chunkProviderServer.isChunkLoaded(chunk[0], chunk[1])) {
+                // Someone else loaded the chunk in the meantime, so the prepared one is of no use
+                chunkLoader.discardPreparedChunk(chunk[0], chunk[1]);
+            } else {
+                world.chunkProviderServer.getChunkAt(chunk[0], chunk[1]);
+            }
+
+            loadedSpawnChunks++;
+        }
+
+        long currentTime = System.currentTimeMillis();
+
+        if (loadedSpawnChunks == totalSpawnChunks) {
+            LOGGER.info("Spawn area for world " + world.getSlimeWorld().getName() + " prepared in " + (currentTime - spawnStartTime) + "ms.");
+        } else if (currentTime > lastSpawnReport + 1000L) {
+            LOGGER.info("Preparing spawn area for world " + world.getSlimeWorld().getName() + ": " + (loadedSpawnChunks * 100 / totalSpawnChunks) + "%");
+            lastSpawnReport = currentTime;
+        }
+    }
+
+    // Called every tick from the main thread
+    public void tick() {
+        loadDeferredEntities();
+        loadSpawnChunks();
+
+        if (++ticks % PREFETCH_INTERVAL == 0) {
+            prefetchChunks();
+        }
+
+        if (ticks % COMPRESSION_INTERVAL == 0) {
+            compressIdleChunks();
+            evictChunks();
+        }
+    }
+
+    private boolean isInUse(int x, int z) {
+        long index = LongHash.toLong(x, z);
+
+        return world.chunkProviderServer.isChunkLoaded(x, z) || prefetchedChunks.contains(index) || preparingChunks.contains(index)
+                || nearbyChunks.contains(index);
+    }
+
+    private void evictChunks() {
+        int memoryLimit = world.getSlimeWorld().getProperties().getMemoryLimit();
+
+        if (memoryLimit > 0) {
+            int evictedChunks = world.getSlimeWorld().evictChunks(memoryLimit * 1024L * 1024L, this::isInUse);
+
+            if (evictedChunks > 0) {
+                LOGGER.debug("Dropped " + evictedChunks + " chunks from memory on world " + world.getSlimeWorld().getName() + ".");
+            }
+        }
+    }
+
+    // Idle chunks are picked here, but compressed on another thread so the main thread doesn't have to wait for it
+    private void compressIdleChunks() {
+        int delay = world.getSlimeWorld().getProperties().getChunkCompressionDelay();
+
+        if (delay <= 0 || compressing) {
+            return;
+        }
+
+        long idleTime = TimeUnit.SECONDS.toMillis(delay);
+        List<SlimeChunk> idleChunks = world.getSlimeWorld().getIdleChunks(idleTime, this::isInUse);
+
+        if (idleChunks.isEmpty()) {
+            return;
+        }
+
+        compressing = true;
+        CHUNK_COMPRESSOR_SERVICE.execute(() -> {
+
+            try {
+                long start = System.nanoTime();
+                int compressedChunks = world.getSlimeWorld().compressChunks(idleChunks, idleTime);
+
+                if (compressedChunks > 0) {
+                    LOGGER.debug("Compressed " + compressedChunks + " idle chunks on world " + world.getSlimeWorld().getName() + " in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+                }
+            } catch (Exception ex) {
+                LOGGER.error("Failed to compress idle chunks on world " + world.getSlimeWorld().getName() + ":");
+                ex.printStackTrace();
+            } finally {
+                compressing = false;
+            }
+
+        });
+    }
+
+    // Squared distance from the chunk to the closest player, or to the spawn point if there are no players
+    private double getPriority(int chunkX, int chunkZ) {
+        double centerX = (chunkX << 4) + 8;
+        double centerZ = (chunkZ << 4) + 8;
+
+        if (world.players.isEmpty()) {
+            double distanceX = centerX - world.getSlimeWorld().getProperties().getSpawnX();
+            double distanceZ = centerZ - world.getSlimeWorld().getProperties().getSpawnZ();
+
+            return distanceX * distanceX + distanceZ * distanceZ;
+        }
+
+        double priority = Double.MAX_VALUE;
+
+        for (EntityHuman player : world.players) {
+            double distanceX = centerX - player.locX;
+            double distanceZ = centerZ - player.locZ;
+
+            priority = Math.min(priority, distanceX * distanceX + distanceZ * distanceZ);
+        }
+
+        return priority;
+    }
+
+    private boolean isLoaded(Chunk chunk) {
+        return world.chunkProviderServer.chunks.get(LongHash.toLong(chunk.locX, chunk.locZ)) == chunk;
+    }
+
+    private static int floor(double num) {
+        final int floor = (int) num;
+        return floor == num ? floor : floor - (int) (Double.doubleToRawLongBits(num) >>> 63);
+    }
+}
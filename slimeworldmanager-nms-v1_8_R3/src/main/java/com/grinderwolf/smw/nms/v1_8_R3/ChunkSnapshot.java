@@ -0,0 +1,77 @@
+package com.grinderwolf.smw.nms.v1_8_R3;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.minecraft.server.v1_8_R3.Chunk;
+import net.minecraft.server.v1_8_R3.ChunkSection;
+import net.minecraft.server.v1_8_R3.Entity;
+import net.minecraft.server.v1_8_R3.NBTTagCompound;
+import net.minecraft.server.v1_8_R3.TileEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Copy of the data of a loaded chunk, so it can be converted to a slime chunk outside the main thread
+@Getter
+@RequiredArgsConstructor
+public class ChunkSnapshot {
+
+    private final String worldName;
+    private final int x;
+    private final int z;
+
+    // Indexed by section id. Missing sections are null
+    private final char[][] blockIds;
+    private final byte[][] blockLight;
+    private final byte[][] skyLight;
+
+    private final int[] heightMap;
+    private final byte[] biomes;
+    private final List<NBTTagCompound> tileEntities;
+    private final List<NBTTagCompound> entities;
+
+    // Entities that haven't been added to the chunk yet, if any
+    private final PreparedChunk deferredChunk;
+
+    // Must be called from the main thread. Only copies arrays and writes entities to NBT, everything else is done by the converter
+    public static ChunkSnapshot take(Chunk chunk, PreparedChunk deferredChunk) {
+        ChunkSection[] sections = chunk.getSections();
+        char[][] blockIds = new char[sections.length][];
+        byte[][] blockLight = new byte[sections.length][];
+        byte[][] skyLight = new byte[sections.length][];
+
+        for (int sectionId = 0; sectionId < sections.length; sectionId++) {
+            ChunkSection section = sections[sectionId];
+
+            if (section != null) {
+                blockIds[sectionId] = section.getIdArray().clone();
+                blockLight[sectionId] = section.getEmittedLightArray().a().clone();
+                skyLight[sectionId] = section.getSkyLightArray().a().clone();
+            }
+        }
+
+        List<NBTTagCompound> tileEntities = new ArrayList<>();
+
+        for (TileEntity entity : chunk.getTileEntities().values()) {
+            NBTTagCompound entityNbt = new NBTTagCompound();
+            entity.b(entityNbt);
+            tileEntities.add(entityNbt);
+        }
+
+        List<NBTTagCompound> entities = new ArrayList<>();
+
+        for (int i = 0; i < chunk.getEntitySlices().length; i++) {
+            for (Entity entity : chunk.getEntitySlices()[i]) {
+                NBTTagCompound entityNbt = new NBTTagCompound();
+
+                if (entity.d(entityNbt)) {
+                    chunk.g(true);
+                    entities.add(entityNbt);
+                }
+            }
+        }
+
+        return new ChunkSnapshot(chunk.world.worldData.getName(), chunk.locX, chunk.locZ, blockIds, blockLight, skyLight,
+                chunk.heightMap.clone(), chunk.getBiomeIndex().clone(), tileEntities, entities, deferredChunk);
+    }
+}
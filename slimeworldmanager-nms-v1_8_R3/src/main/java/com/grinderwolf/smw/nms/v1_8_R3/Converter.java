@@ -6,6 +6,7 @@ import com.grinderwolf.smw.api.world.SlimeChunkSection;
 import com.grinderwolf.smw.api.utils.NibbleArray;
 import com.grinderwolf.smw.nms.CraftSlimeChunk;
 import com.grinderwolf.smw.nms.CraftSlimeChunkSection;
+import com.grinderwolf.smw.nms.OffHeapSlimeChunkSection;
 import net.minecraft.server.v1_8_R3.*;
 
 import java.util.ArrayList;
@@ -14,7 +15,25 @@ import java.util.List;
 public class Converter {
 
     public static net.minecraft.server.v1_8_R3.NibbleArray convertArray(NibbleArray array) {
-        return new net.minecraft.server.v1_8_R3.NibbleArray(array.getBacking());
+        // NMS modifies its light arrays, so they can't be shared with the slime chunk
+        return new net.minecraft.server.v1_8_R3.NibbleArray(array.toByteArray());
+    }
+
+    // Off-heap sections already return a copy of their light arrays, so they don't have to be copied twice
+    public static net.minecraft.server.v1_8_R3.NibbleArray convertBlockLight(SlimeChunkSection section) {
+        if (section instanceof OffHeapSlimeChunkSection) {
+            return new net.minecraft.server.v1_8_R3.NibbleArray(((OffHeapSlimeChunkSection) section).copyBlockLight());
+        }
+
+        return convertArray(section.getBlockLight());
+    }
+
+    public static net.minecraft.server.v1_8_R3.NibbleArray convertSkyLight(SlimeChunkSection section) {
+        if (section instanceof OffHeapSlimeChunkSection) {
+            return new net.minecraft.server.v1_8_R3.NibbleArray(((OffHeapSlimeChunkSection) section).copySkyLight());
+        }
+
+        return convertArray(section.getSkyLight());
     }
 
     public static NibbleArray convertArray(net.minecraft.server.v1_8_R3.NibbleArray array) {
@@ -103,68 +122,68 @@ public class Converter {
         }
     }
 
-    public static SlimeChunk convertChunk(Chunk chunk) {
+    // Can be called from any thread, as the snapshot doesn't share any data with the world
+    public static SlimeChunk convertChunk(ChunkSnapshot snapshot) {
         // Chunk sections
         SlimeChunkSection[] sections = new SlimeChunkSection[16];
 
-        for (int sectionId = 0; sectionId < chunk.getSections().length; sectionId++) {
-            ChunkSection section = chunk.getSections()[sectionId];
-
-            if (section != null) {
-                section.recalcBlockCounts();
+        for (int sectionId = 0; sectionId < snapshot.getBlockIds().length; sectionId++) {
+            char[] blockIds = snapshot.getBlockIds()[sectionId];
 
-                if (!section.a()) { // If the section is empty, just ignore it to save space
-                    // Block Light Nibble Array
-                    NibbleArray blockLightArray = convertArray(section.getEmittedLightArray());
+            if (blockIds != null && !isEmpty(blockIds)) { // If the section is empty, just ignore it to save space
+                // Block Light Nibble Array
+                NibbleArray blockLightArray = new NibbleArray(snapshot.getBlockLight()[sectionId]);
 
-                    // Sky light Nibble Array
-                    NibbleArray skyLightArray = convertArray(section.getSkyLightArray());
+                // Sky light Nibble Array
+                NibbleArray skyLightArray = new NibbleArray(snapshot.getSkyLight()[sectionId]);
 
-                    // Block Data
-                    byte[] blocks = new byte[4096];
-                    NibbleArray blockDataArray = new NibbleArray(4096);
+                // Block Data
+                byte[] blocks = new byte[4096];
+                NibbleArray blockDataArray = new NibbleArray(4096);
 
-                    for (int i = 0; i < section.getIdArray().length; i++) {
-                        char packed = section.getIdArray()[i];
+                for (int i = 0; i < blockIds.length; i++) {
+                    char packed = blockIds[i];
 
-                        blocks[i] = (byte) (packed >> 4 & 255);
-                        blockDataArray.set(i, packed & 15);
-                    }
-
-                    sections[sectionId] = new CraftSlimeChunkSection(blocks, blockDataArray, blockLightArray, skyLightArray);
+                    blocks[i] = (byte) (packed >> 4 & 255);
+                    blockDataArray.set(i, packed & 15);
                 }
+
+                sections[sectionId] = new CraftSlimeChunkSection(blocks, blockDataArray, blockLightArray, skyLightArray);
             }
         }
 
         // Tile Entities
         ArrayList<CompoundTag> tileEntities = new ArrayList<>();
 
-        for (TileEntity entity : chunk.getTileEntities().values()) {
-            NBTTagCompound entityNbt = new NBTTagCompound();
-            entity.b(entityNbt);
-            tileEntities.add((CompoundTag) convertTag("", entityNbt));
+        for (NBTTagCompound entityNbt : snapshot.getTileEntities()) {
+            tileEntities.add(NBTCodec.fromNMS(entityNbt));
         }
 
         // Entities
         ArrayList<CompoundTag> entities = new ArrayList<>();
 
-        for (int i = 0; i < chunk.getEntitySlices().length; i++) {
-            for (Entity entity : chunk.getEntitySlices()[i]) {
-                NBTTagCompound entityNbt = new NBTTagCompound();
+        for (NBTTagCompound entityNbt : snapshot.getEntities()) {
+            entities.add(NBTCodec.fromNMS(entityNbt));
+        }
 
-                if (entity.d(entityNbt)) {
-                    chunk.g(true);
-                    entities.add((CompoundTag) convertTag("", entityNbt));
-                }
-            }
+        // Entities that haven't been loaded yet must be saved too
+        if (snapshot.getDeferredChunk() != null) {
+            tileEntities.addAll(snapshot.getDeferredChunk().getSlimeChunk().getTileEntities());
+            entities.addAll(snapshot.getDeferredChunk().getSlimeChunk().getEntities());
         }
 
-        // Biomes
-        byte[] biomes = chunk.getBiomeIndex();
+        return new CraftSlimeChunk(snapshot.getWorldName(), snapshot.getX(), snapshot.getZ(), sections, snapshot.getHeightMap(),
+                snapshot.getBiomes(), tileEntities, entities);
+    }
 
-        // HeightMap
-        int[] heightMap = chunk.heightMap;
+    // Same as ChunkSection#recalcBlockCounts() and ChunkSection#a(): a section is empty if it only contains air
+    private static boolean isEmpty(char[] blockIds) {
+        for (char packed : blockIds) {
+            if (packed >> 4 != 0) {
+                return false;
+            }
+        }
 
-        return new CraftSlimeChunk(chunk.world.worldData.getName(), chunk.locX, chunk.locZ, sections, heightMap, biomes, tileEntities, entities);
+        return true;
     }
 }
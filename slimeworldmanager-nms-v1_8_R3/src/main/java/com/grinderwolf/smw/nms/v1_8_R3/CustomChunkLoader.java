@@ -3,9 +3,13 @@ package com.grinderwolf.smw.nms.v1_8_R3;
 import com.flowpowered.nbt.CompoundTag;
 import com.grinderwolf.smw.api.world.SlimeChunk;
 import com.grinderwolf.smw.api.world.SlimeChunkSection;
+import com.grinderwolf.smw.api.world.SlimeWorld;
 import com.grinderwolf.smw.api.utils.NibbleArray;
 import com.grinderwolf.smw.nms.CraftSlimeWorld;
+import com.grinderwolf.smw.nms.OffHeapSlimeChunkSection;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import net.minecraft.server.v1_8_R3.Block;
 import net.minecraft.server.v1_8_R3.Chunk;
 import net.minecraft.server.v1_8_R3.ChunkSection;
@@ -19,35 +23,92 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @RequiredArgsConstructor
 public class CustomChunkLoader implements IChunkLoader {
 
     private static final Logger LOGGER = LogManager.getLogger("SMW Chunk Loader");
+    private static final ExecutorService CHUNK_CONVERTER_SERVICE = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+            .setNameFormat("SMW Chunk Converter #%1$d").build());
 
     private final CraftSlimeWorld world;
+    private final Map<Long, PreparedChunk> preparedChunks = new ConcurrentHashMap<>();
+
+    // Snapshots of saved chunks that haven't been converted yet. Updates to the slime world are guarded by the map lock
+    private final Map<Long, ChunkSnapshot> pendingSnapshots = new ConcurrentHashMap<>();
+
+    @Setter
+    private ChunkLoadScheduler loadScheduler;
 
     // Load chunk
     @Override
     public Chunk a(World nmsWorld, int x, int z) throws IOException {
         LOGGER.debug("Loading chunk (" + x + ", " + z + ") on world " + world.getName());
 
-        SlimeChunk chunk = world.getChunk(x, z);
-        Chunk nmsChunk = new Chunk(nmsWorld, x, z);
+        long start = System.nanoTime();
+        long index = getIndex(x, z);
+        PreparedChunk preparedChunk = preparedChunks.remove(index);
 
-        nmsChunk.d(true);
-        nmsChunk.e(true);
+        // The chunk might have been saved, but not converted yet. This has to be done before checking the prepared chunk
+        flushSnapshot(index);
 
-        if (chunk == null) {
-            Long index = (((long) z) * Integer.MAX_VALUE + ((long) x));
+        // Entities won't be converted if they're not going to be loaded right away
+        boolean deferEntities = loadScheduler != null && loadScheduler.shouldDeferEntities();
 
-            LOGGER.debug("Failed to load chunk (" + x + ", " + z + ") (" + index + ") on world " + world.getName() + ": chunk does not exist. Generating empty one...");
+        // The chunk might have been updated after being prepared
+        if (preparedChunk == null || preparedChunk.getSlimeChunk() != world.getChunk(x, z)) {
+            preparedChunk = prepareChunk(x, z, !deferEntities);
+        }
+
+        if (preparedChunk == null) {
+            Chunk nmsChunk = new Chunk(nmsWorld, x, z);
+
+            nmsChunk.d(true);
+            nmsChunk.e(true);
+
+            LOGGER.debug("Failed to load chunk (" + x + ", " + z + ") (" + getIndex(x, z) + ") on world " + world.getName() + ": chunk does not exist. Generating empty one...");
 
             return nmsChunk;
         }
 
-        nmsChunk.a(chunk.getHeightMap());
+        Chunk nmsChunk = buildChunk(nmsWorld, preparedChunk, !deferEntities);
+
+        if (loadScheduler != null) {
+            if (deferEntities) {
+                loadScheduler.deferEntities(nmsChunk, preparedChunk);
+            }
+
+            loadScheduler.consumeBudget(System.nanoTime() - start);
+        }
+
+        return nmsChunk;
+    }
+
+    // Converts the chunk data to NMS objects. This doesn't touch the world, so it can be safely called from any thread
+    public PreparedChunk prepareChunk(int x, int z, boolean convertEntities) {
+        // The chunk might have been saved, but not converted yet
+        flushSnapshot(getIndex(x, z));
+
+        // Off-heap sections must not be freed while they're being converted
+        world.startReadingSections();
+
+        try {
+            return prepareChunk(world.getChunk(x, z), x, z, convertEntities);
+        } finally {
+            world.stopReadingSections();
+        }
+    }
+
+    private PreparedChunk prepareChunk(SlimeChunk chunk, int x, int z, boolean convertEntities) {
+        if (chunk == null) {
+            return null;
+        }
 
         // Load chunk sections
         LOGGER.debug("Loading chunk sections for chunk (" + x + ", " + z + ") on world " + world.getName());
@@ -58,14 +119,16 @@ public class CustomChunkLoader implements IChunkLoader {
 
             if (slimeSection != null) {
                 ChunkSection section = new ChunkSection(sectionId, true);
-                NibbleArray data = slimeSection.getData();
 
-                byte[] blocks = slimeSection.getBlocks();
-                char[] blockIds = new char[blocks.length];
+                // Off-heap sections are read straight from their buffer instead of being copied to the heap first
+                OffHeapSlimeChunkSection offHeapSection = slimeSection instanceof OffHeapSlimeChunkSection ? (OffHeapSlimeChunkSection) slimeSection : null;
+                NibbleArray data = offHeapSection == null ? slimeSection.getData() : null;
+                byte[] blocks = offHeapSection == null ? slimeSection.getBlocks() : null;
+                char[] blockIds = new char[4096];
 
-                for (int id = 0; id < blocks.length; id++) {
-                    int blockId = blocks[id] & 255;
-                    int blockData = data.get(id);
+                for (int id = 0; id < blockIds.length; id++) {
+                    int blockId = offHeapSection != null ? offHeapSection.getBlockId(id) : blocks[id] & 255;
+                    int blockData = offHeapSection != null ? offHeapSection.getBlockData(id) : data.get(id);
                     int packed = blockId << 4 | blockData;
 
                     if (Block.d.a(packed) == null) {
@@ -85,37 +148,97 @@ public class CustomChunkLoader implements IChunkLoader {
                     blockIds[id] = (char) packed;
                 }
 
-                LOGGER.debug("ChunkSection #" + sectionId + " - Chunk (" + x + ", " + z + ") - World " + world.getName() + ":");
-                LOGGER.debug("Blocks:");
-                LOGGER.debug(blockIds);
-                LOGGER.debug("Block light array:");
-                LOGGER.debug(slimeSection.getBlockLight().getBacking());
-                LOGGER.debug("Sky light array:");
-                LOGGER.debug(slimeSection.getSkyLight().getBacking());
+                // Light arrays might have to be copied to be logged
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("ChunkSection #" + sectionId + " - Chunk (" + x + ", " + z + ") - World " + world.getName() + ":");
+                    LOGGER.debug("Blocks:");
+                    LOGGER.debug(blockIds);
+                    LOGGER.debug("Block light array:");
+                    LOGGER.debug(slimeSection.getBlockLight().getBacking());
+                    LOGGER.debug("Sky light array:");
+                    LOGGER.debug(slimeSection.getSkyLight().getBacking());
+                }
 
                 section.a(blockIds);
-                section.a(Converter.convertArray(slimeSection.getBlockLight()));
-                section.b(Converter.convertArray(slimeSection.getSkyLight()));
+                section.a(Converter.convertBlockLight(slimeSection));
+                section.b(Converter.convertSkyLight(slimeSection));
 
                 section.recalcBlockCounts();
                 sections[sectionId] = section;
             }
         }
 
-        nmsChunk.a(sections);
+        // Tile entities and entities. If not converted now, they will be once they get loaded
+        List<NBTTagCompound> tileEntities = convertEntities ? convertTags(chunk.getTileEntities()) : null;
+        List<NBTTagCompound> entities = convertEntities ? convertTags(chunk.getEntities()) : null;
+
+        return new PreparedChunk(chunk, x, z, chunk.getHeightMap(), sections, tileEntities, entities);
+    }
+
+    private static List<NBTTagCompound> convertTags(List<CompoundTag> tags) {
+        List<NBTTagCompound> nmsTags = new ArrayList<>();
+
+        if (tags != null) {
+            for (CompoundTag tag : tags) {
+                nmsTags.add(NBTCodec.toNMS(tag));
+            }
+        }
+
+        return nmsTags;
+    }
+
+    // Stores a prepared chunk, so it doesn't have to be converted again when NMS requests it
+    public void cachePreparedChunk(PreparedChunk chunk) {
+        preparedChunks.put(getIndex(chunk.getX(), chunk.getZ()), chunk);
+    }
+
+    public void discardPreparedChunk(int x, int z) {
+        preparedChunks.remove(getIndex(x, z));
+    }
+
+    // Must be called from the main thread
+    private Chunk buildChunk(World nmsWorld, PreparedChunk preparedChunk, boolean loadEntities) {
+        Chunk nmsChunk = new Chunk(nmsWorld, preparedChunk.getX(), preparedChunk.getZ());
+
+        nmsChunk.d(true);
+        nmsChunk.e(true);
+
+        nmsChunk.a(preparedChunk.getHeightMap());
+        nmsChunk.a(preparedChunk.getSections());
+
+        if (loadEntities) {
+            loadEntities(nmsChunk, preparedChunk, false);
+        }
+
+        LOGGER.debug("Loaded chunk (" + preparedChunk.getX() + ", " + preparedChunk.getZ() + ") on world " + world.getName());
+
+        return nmsChunk;
+    }
+
+    // Must be called from the main thread. If the chunk has already been added to the world, entities have to be added manually
+    void loadEntities(Chunk nmsChunk, PreparedChunk preparedChunk, boolean chunkLoaded) {
+        int x = preparedChunk.getX();
+        int z = preparedChunk.getZ();
+        World nmsWorld = nmsChunk.world;
 
         // Load tile entities
         LOGGER.debug("Loading tile entities for chunk (" + x + ", " + z + ") on world " + world.getName());
-        List<CompoundTag> tileEntities = chunk.getTileEntities();
         int loadedEntities = 0;
+        List<NBTTagCompound> tileEntityTags = preparedChunk.getTileEntities();
+
+        if (tileEntityTags == null) {
+            tileEntityTags = convertTags(preparedChunk.getSlimeChunk().getTileEntities());
+        }
 
-        if (tileEntities != null) {
-            for (CompoundTag tag : tileEntities) {
-                TileEntity entity = TileEntity.c((NBTTagCompound) Converter.convertTag(tag));
+        for (NBTTagCompound tag : tileEntityTags) {
+            TileEntity entity = TileEntity.c(tag);
 
-                if (entity != null) {
-                    nmsChunk.a(entity);
-                    loadedEntities++;
+            if (entity != null) {
+                nmsChunk.a(entity);
+                loadedEntities++;
+
+                if (chunkLoaded) { // Players might have already received the chunk
+                    nmsWorld.notify(entity.getPosition());
                 }
             }
         }
@@ -124,48 +247,98 @@ public class CustomChunkLoader implements IChunkLoader {
 
         // Load entities
         LOGGER.debug("Loading entities for chunk (" + x + ", " + z + ") on world " + world.getName());
-        List<CompoundTag> entities = chunk.getEntities();
-        loadedEntities = 0;
+        List<Entity> entities = new ArrayList<>();
+        List<NBTTagCompound> entityTags = preparedChunk.getEntities();
 
-        if (entities != null) {
-            for (CompoundTag tag : entities) {
-                Entity entity = EntityTypes.a((NBTTagCompound) Converter.convertTag(tag), nmsWorld);
-                nmsChunk.g(true);
+        if (entityTags == null) {
+            entityTags = convertTags(preparedChunk.getSlimeChunk().getEntities());
+        }
 
-                if (entity != null) {
-                    nmsChunk.a(entity);
-                    Entity entity1 = entity;
+        for (NBTTagCompound tag : entityTags) {
+            Entity entity = EntityTypes.a(tag, nmsWorld);
+            nmsChunk.g(true);
 
-                    for (CompoundTag ridingTag = tag; ridingTag.getValue().containsKey("Riding"); ridingTag = (CompoundTag) ridingTag.getValue().get("Riding")) {
-                        Entity entity2 = EntityTypes.a((NBTTagCompound) Converter.convertTag(ridingTag.getValue().get("Riding")), nmsWorld);
+            if (entity != null) {
+                nmsChunk.a(entity);
+                entities.add(entity);
+                Entity entity1 = entity;
 
-                        if (entity2 != null) {
-                            nmsChunk.a(entity2);
-                            entity1.mount(entity2);
-                            loadedEntities++;
-                        }
+                for (NBTTagCompound ridingTag = tag; ridingTag.hasKeyOfType("Riding", 10); ridingTag = ridingTag.getCompound("Riding")) {
+                    Entity entity2 = EntityTypes.a(ridingTag.getCompound("Riding"), nmsWorld);
 
-                        entity1 = entity2;
+                    if (entity2 != null) {
+                        nmsChunk.a(entity2);
+                        entities.add(entity2);
+                        entity1.mount(entity2);
                     }
 
-                    loadedEntities++;
+                    entity1 = entity2;
                 }
             }
         }
 
-        LOGGER.debug("Loaded " + loadedEntities + " entities for chunk (" + x + ", " + z + ") on world " + world.getName());
-        LOGGER.debug("Loaded chunk (" + x + ", " + z + ") on world " + world.getName());
+        if (chunkLoaded) { // Same as Chunk#addEntities()
+            for (Entity entity : entities) {
+                entity.ah();
+            }
 
-        return nmsChunk;
+            nmsWorld.b(entities);
+        }
+
+        LOGGER.debug("Loaded " + entities.size() + " entities for chunk (" + x + ", " + z + ") on world " + world.getName());
+    }
+
+    private static long getIndex(int x, int z) {
+        return ((long) z) * Integer.MAX_VALUE + ((long) x);
     }
 
     // Save chunk
     @Override
     public void a(World world, Chunk chunk) {
-        SlimeChunk slimeChunk = Converter.convertChunk(chunk);
-        this.world.updateChunk(slimeChunk);
+        SlimeWorld.SlimeProperties properties = this.world.getProperties();
+
+        // Read-only worlds never get saved, so there's no point in converting the chunk if changes are not kept in memory either.
+        // As the chunk is never marked as modified, the memory limit can still drop it and read it again when needed
+        if (properties.isReadOnly() && properties.isDiscardChanges()) {
+            return;
+        }
+
+        // Only copy the chunk data here, the actual conversion is done in the background
+        PreparedChunk deferredChunk = loadScheduler != null ? loadScheduler.getDeferredChunk(chunk) : null;
+        ChunkSnapshot snapshot = ChunkSnapshot.take(chunk, deferredChunk);
+        Long index = getIndex(chunk.locX, chunk.locZ);
+
+        // A chunk prepared before this save is outdated now
+        preparedChunks.remove(index);
+        pendingSnapshots.put(index, snapshot);
+        CHUNK_CONVERTER_SERVICE.execute(() -> convertSnapshot(index, snapshot));
+    }
+
+    private void convertSnapshot(Long index, ChunkSnapshot snapshot) {
+        SlimeChunk slimeChunk = Converter.convertChunk(snapshot);
 
-        // TODO: Save chunk
+        synchronized (pendingSnapshots) {
+            // A newer snapshot of the chunk might have been taken in the meantime, or someone else might have already converted this one
+            if (pendingSnapshots.remove(index, snapshot)) {
+                world.updateChunk(slimeChunk);
+            }
+        }
+    }
+
+    // Converts the pending snapshot of a chunk right away, if there's any
+    private void flushSnapshot(Long index) {
+        ChunkSnapshot snapshot = pendingSnapshots.get(index);
+
+        if (snapshot != null) {
+            convertSnapshot(index, snapshot);
+        }
+    }
+
+    // Makes sure every saved chunk has been written to the slime world. Can be called from any thread
+    public void flushSnapshots() {
+        for (Long index : new ArrayList<>(pendingSnapshots.keySet())) {
+            flushSnapshot(index);
+        }
     }
 
 
@@ -22,6 +22,7 @@ public class CustomDataManager extends WorldNBTStorage {
     private final IPlayerFileData playerFileData = new EmptyPlayerFileData();
     private final SlimeWorld world;
     private WorldData worldData;
+    private CustomChunkLoader chunkLoader;
 
     // When unloading a world, Spigot tries to remove the region file from its cache.
     // To do so, it casts the world's IDataManager to a WorldNBTStorage, to be able
@@ -59,7 +60,9 @@ public class CustomDataManager extends WorldNBTStorage {
 
     @Override
     public IChunkLoader createChunkLoader(WorldProvider worldProvider) {
-        return new CustomChunkLoader((CraftSlimeWorld) world);
+        chunkLoader = new CustomChunkLoader((CraftSlimeWorld) world);
+
+        return chunkLoader;
     }
 
     @Override
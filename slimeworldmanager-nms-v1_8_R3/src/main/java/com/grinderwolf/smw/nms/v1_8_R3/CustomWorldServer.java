@@ -1,14 +1,16 @@
 package com.grinderwolf.smw.nms.v1_8_R3;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.grinderwolf.smw.api.loaders.SlimeLoader;
+import com.grinderwolf.smw.api.loaders.StreamWriteLoader;
 import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.api.world.TickSubsystem;
 import com.grinderwolf.smw.nms.CraftSlimeWorld;
 import lombok.Getter;
 import net.minecraft.server.v1_8_R3.BlockPosition;
 import net.minecraft.server.v1_8_R3.EntityTracker;
 import net.minecraft.server.v1_8_R3.EnumDifficulty;
 import net.minecraft.server.v1_8_R3.ExceptionWorldConflict;
-import net.minecraft.server.v1_8_R3.IDataManager;
 import net.minecraft.server.v1_8_R3.IProgressUpdate;
 import net.minecraft.server.v1_8_R3.MinecraftServer;
 import net.minecraft.server.v1_8_R3.WorldManager;
@@ -18,6 +20,8 @@ import org.apache.logging.log4j.Logger;
 import org.bukkit.World;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -29,13 +33,22 @@ public class CustomWorldServer extends WorldServer {
 
     @Getter
     private final CraftSlimeWorld slimeWorld;
+    @Getter
+    private final ChunkLoadScheduler chunkLoadScheduler;
+    private final CustomChunkLoader chunkLoader;
     private final Object saveLock = new Object();
 
-    public CustomWorldServer(CraftSlimeWorld world, IDataManager dataManager, int dimension) {
+    // Saves are chained, so they're always written in the same order they were requested. Only accessed from the main thread
+    private CompletableFuture<Void> pendingSave = CompletableFuture.completedFuture(null);
+
+    public CustomWorldServer(CraftSlimeWorld world, CustomDataManager dataManager, int dimension) {
         super(MinecraftServer.getServer(), dataManager, dataManager.getWorldData(), dimension, MinecraftServer.getServer().methodProfiler, World.Environment.NORMAL, null);
 
         b();
         this.slimeWorld = world;
+        this.chunkLoader = dataManager.getChunkLoader();
+        this.chunkLoadScheduler = new ChunkLoadScheduler(this, chunkLoader);
+        chunkLoader.setLoadScheduler(chunkLoadScheduler);
         this.scoreboard = MinecraftServer.getServer().server.getScoreboardManager().getMainScoreboard().getHandle();
         this.tracker = new EntityTracker(this);
         addIWorldAccess(new WorldManager(MinecraftServer.getServer(), this));
@@ -45,15 +58,46 @@ public class CustomWorldServer extends WorldServer {
         worldData.setDifficulty(EnumDifficulty.getById(properties.getDifficulty()));
         worldData.setSpawn(new BlockPosition(properties.getSpawnX(), properties.getSpawnY(), properties.getSpawnZ()));
         super.setSpawnFlags(properties.allowMonsters(), properties.allowAnimals());
+
+        if (properties.getDisabledTicks().contains(TickSubsystem.MOB_SPAWNING)) {
+            getGameRules().set("doMobSpawning", "false");
+        }
+    }
+
+    // Weather
+    @Override
+    protected void p() {
+        if (!slimeWorld.getProperties().getDisabledTicks().contains(TickSubsystem.WEATHER)) {
+            super.p();
+        }
+    }
+
+    // Random block ticks, lightning strikes and snow and ice forming
+    @Override
+    protected void h() {
+        if (!slimeWorld.getProperties().getDisabledTicks().contains(TickSubsystem.RANDOM_TICKS)) {
+            super.h();
+        }
+    }
+
+    @Override
+    public void doTick() {
+        super.doTick();
+        chunkLoadScheduler.tick();
     }
 
     @Override
     public void save(boolean forceSave, IProgressUpdate progressUpdate) throws ExceptionWorldConflict {
-        if (!slimeWorld.getProperties().isReadOnly()) {
+        // Autosaves are the only saves that are not forced. The world is still saved when unloaded and when the server stops
+        boolean skipAutosave = !forceSave && slimeWorld.getProperties().getDisabledTicks().contains(TickSubsystem.AUTOSAVE);
+
+        if (!slimeWorld.getProperties().isReadOnly() && !skipAutosave) {
             super.save(forceSave, progressUpdate);
 
             if (MinecraftServer.getServer().isStopped()) { // Make sure the slimeWorld gets saved before stopping the server by running it from the main thread
-                save();
+                try {
+                    save();
+                } catch (UncheckedIOException ignored) { } // Already logged
 
                 // Have to manually unlock the world as well
                 try {
@@ -64,21 +108,42 @@ public class CustomWorldServer extends WorldServer {
                     ex.printStackTrace();
                 }
             } else {
-                WORLD_SAVER_SERVICE.execute(this::save);
+                pendingSave = pendingSave.exceptionally(ex -> null).thenRunAsync(this::save, WORLD_SAVER_SERVICE);
             }
         }
     }
 
+    // Completed once every save requested so far has been written to the world loader
+    public CompletableFuture<Void> getPendingSave() {
+        return pendingSave;
+    }
+
     private void save() {
         synchronized (saveLock) { // Don't want to save the slimeWorld from multiple threads simultaneously
             try {
                 LOGGER.info("Saving slimeWorld " + slimeWorld.getName() + "...");
                 long start = System.currentTimeMillis();
-                byte[] serializedWorld = slimeWorld.serialize();
-                slimeWorld.getLoader().saveWorld(slimeWorld.getName(), serializedWorld);
+
+                // Chunks saved by NMS might still be waiting to be converted
+                chunkLoader.flushSnapshots();
+
+                long modificationCount = slimeWorld.getModificationCount();
+                SlimeLoader loader = slimeWorld.getLoader();
+
+                // Big worlds don't fit in a single array, so they're written straight to the loader if it can take them that way
+                if (loader instanceof StreamWriteLoader) {
+                    ((StreamWriteLoader) loader).saveWorld(slimeWorld.getName(), slimeWorld::serialize);
+                } else {
+                    loader.saveWorld(slimeWorld.getName(), slimeWorld.serialize());
+                }
+
+                slimeWorld.markSaved(modificationCount);
                 LOGGER.info("World " + slimeWorld.getName() + " saved in " + (System.currentTimeMillis() - start) + "ms.");
             } catch (IOException ex) {
                 ex.printStackTrace();
+
+                // Let whoever is waiting for the save know it failed
+                throw new UncheckedIOException(ex);
             }
         }
     }
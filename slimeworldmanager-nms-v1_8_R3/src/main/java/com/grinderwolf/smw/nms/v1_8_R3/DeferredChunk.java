@@ -0,0 +1,14 @@
+package com.grinderwolf.smw.nms.v1_8_R3;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.minecraft.server.v1_8_R3.Chunk;
+
+// A loaded chunk whose entities and tile entities are still waiting to be added to it
+@Getter
+@RequiredArgsConstructor
+public class DeferredChunk {
+
+    private final Chunk chunk;
+    private final PreparedChunk preparedChunk;
+}
@@ -0,0 +1,61 @@
+package com.grinderwolf.smw.nms.v1_8_R3;
+
+import com.flowpowered.nbt.CompoundTag;
+import com.grinderwolf.smw.nms.RawCompoundTag;
+import net.minecraft.server.v1_8_R3.NBTCompressedStreamTools;
+import net.minecraft.server.v1_8_R3.NBTReadLimiter;
+import net.minecraft.server.v1_8_R3.NBTTagCompound;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+
+// Reads and writes NMS compounds straight from and to the Slime format, without going through flow-nbt
+public class NBTCodec {
+
+    // Tag type (compound) and empty name, as written by NBTCompressedStreamTools
+    private static final byte[] COMPOUND_HEADER = { 10, 0, 0 };
+
+    public static NBTTagCompound toNMS(CompoundTag tag) {
+        if (tag instanceof RawCompoundTag) {
+            byte[] payload = ((RawCompoundTag) tag).getPayload();
+
+            if (payload != null) {
+                return readCompound(payload);
+            }
+        }
+
+        return (NBTTagCompound) Converter.convertTag(tag);
+    }
+
+    public static CompoundTag fromNMS(NBTTagCompound compound) {
+        return new RawCompoundTag("", writeCompound(compound));
+    }
+
+    public static NBTTagCompound readCompound(byte[] payload) {
+        try {
+            DataInputStream stream = new DataInputStream(new SequenceInputStream(new ByteArrayInputStream(COMPOUND_HEADER), new ByteArrayInputStream(payload)));
+
+            return NBTCompressedStreamTools.a(stream, NBTReadLimiter.a);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to read compound tag", ex);
+        }
+    }
+
+    public static byte[] writeCompound(NBTTagCompound compound) {
+        try {
+            ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
+            NBTCompressedStreamTools.a(compound, new DataOutputStream(outByteStream));
+
+            byte[] serializedCompound = outByteStream.toByteArray();
+
+            return Arrays.copyOfRange(serializedCompound, COMPOUND_HEADER.length, serializedCompound.length);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to write compound tag", ex);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.grinderwolf.smw.nms.v1_8_R3;
+
+import com.grinderwolf.smw.api.world.SlimeChunk;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.minecraft.server.v1_8_R3.ChunkSection;
+import net.minecraft.server.v1_8_R3.NBTTagCompound;
+
+import java.util.List;
+
+// Chunk data that has already been converted to NMS objects, but hasn't been attached to any world yet
+@Getter
+@RequiredArgsConstructor
+public class PreparedChunk {
+
+    private final SlimeChunk slimeChunk;
+    private final int x;
+    private final int z;
+
+    private final int[] heightMap;
+    private final ChunkSection[] sections;
+    private final List<NBTTagCompound> tileEntities;
+    private final List<NBTTagCompound> entities;
+}
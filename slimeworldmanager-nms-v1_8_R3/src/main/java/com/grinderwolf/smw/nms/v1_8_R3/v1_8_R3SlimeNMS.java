@@ -3,6 +3,7 @@ package com.grinderwolf.smw.nms.v1_8_R3;
 import com.grinderwolf.smw.api.world.SlimeWorld;
 import com.grinderwolf.smw.nms.CraftSlimeWorld;
 import com.grinderwolf.smw.nms.SlimeNMS;
+import net.minecraft.server.v1_8_R3.ExceptionWorldConflict;
 import net.minecraft.server.v1_8_R3.MinecraftServer;
 import net.minecraft.server.v1_8_R3.WorldServer;
 import org.apache.logging.log4j.LogManager;
@@ -13,6 +14,8 @@ import org.bukkit.craftbukkit.v1_8_R3.CraftWorld;
 import org.bukkit.event.world.WorldInitEvent;
 import org.bukkit.event.world.WorldLoadEvent;
 
+import java.util.concurrent.CompletableFuture;
+
 public class v1_8_R3SlimeNMS implements SlimeNMS {
 
     private static final Logger LOGGER = LogManager.getLogger("SMW");
@@ -38,35 +41,53 @@ public class v1_8_R3SlimeNMS implements SlimeNMS {
             }
         }
 
-        WorldServer server = new CustomWorldServer((CraftSlimeWorld) world, dataManager, dimension);
+        CustomWorldServer server = new CustomWorldServer((CraftSlimeWorld) world, dataManager, dimension);
 
         mcServer.worlds.add(server);
 
         Bukkit.getPluginManager().callEvent(new WorldInitEvent(server.getWorld()));
         Bukkit.getPluginManager().callEvent(new WorldLoadEvent(server.getWorld()));
 
-        if (server.getWorld().getKeepSpawnInMemory()) {
-            LOGGER.debug("Preparing start region for world " + worldName);
-            long timeMillis = System.currentTimeMillis();
-
-            for (int x = -196; x <= 196; x += 16) {
-                for (int z = -196; z <= 196; z += 16) {
-                    long currentTime = System.currentTimeMillis();
+        int preloadRadius = world.getProperties().getPreloadRadius();
 
-                    if (currentTime > timeMillis + 1000L) {
-                        int total = (196 * 2 + 1) * (196 * 2 + 1);
-                        int done = (x + 196) * (196 * 2 + 1) + z + 1;
+        if (server.getWorld().getKeepSpawnInMemory() && preloadRadius > 0) {
+            // Chunks are prepared asynchronously, and then loaded during the next ticks
+            int spawnChunkX = (int) Math.floor(world.getProperties().getSpawnX()) >> 4;
+            int spawnChunkZ = (int) Math.floor(world.getProperties().getSpawnZ()) >> 4;
 
-                        LOGGER.debug("Preparing spawn area for " + worldName + ": " + (done * 100 / total) + "%");
-                        timeMillis = currentTime;
-                    }
-                }
-            }
+            server.getChunkLoadScheduler().preloadSpawn(spawnChunkX, spawnChunkZ, preloadRadius);
         }
 
         LOGGER.info("World " + world.getName() + " loaded in " + (System.currentTimeMillis() - startTime) + "ms.");
     }
 
+    @Override
+    public void setGlobalChunkLoadBudget(int budget) {
+        ChunkLoadScheduler.setGlobalBudget(budget);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveWorld(World world) {
+        CraftWorld craftWorld = (CraftWorld) world;
+
+        if (!(craftWorld.getHandle() instanceof CustomWorldServer)) {
+            throw new IllegalArgumentException("World " + world.getName() + " is not a slime world!");
+        }
+
+        CustomWorldServer worldServer = (CustomWorldServer) craftWorld.getHandle();
+
+        try {
+            worldServer.save(true, null);
+        } catch (ExceptionWorldConflict ex) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(ex);
+
+            return future;
+        }
+
+        return worldServer.getPendingSave();
+    }
+
     @Override
     public SlimeWorld getSlimeWorld(World world) {
         CraftWorld craftWorld = (CraftWorld) world;
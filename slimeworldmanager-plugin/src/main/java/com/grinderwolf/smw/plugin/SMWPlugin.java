@@ -6,15 +6,24 @@ import com.grinderwolf.smw.api.exceptions.InvalidVersionException;
 import com.grinderwolf.smw.api.exceptions.NewerFormatException;
 import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
 import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+import com.grinderwolf.smw.api.loaders.RangeReadLoader;
 import com.grinderwolf.smw.api.loaders.SlimeLoader;
 import com.grinderwolf.smw.api.loaders.SlimeLoaders;
+import com.grinderwolf.smw.api.loaders.WorldRangeReader;
+import com.grinderwolf.smw.api.world.EntityLoadMode;
 import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.api.world.TickSubsystem;
 import com.grinderwolf.smw.nms.SlimeNMS;
 import com.grinderwolf.smw.nms.v1_8_R3.v1_8_R3SlimeNMS;
 import com.grinderwolf.smw.plugin.commands.CommandManager;
 import com.grinderwolf.smw.plugin.config.ConfigManager;
+import com.grinderwolf.smw.plugin.loaders.CachingLoader;
+import com.grinderwolf.smw.plugin.loaders.FileLoader;
 import com.grinderwolf.smw.plugin.loaders.LoaderUtils;
 import com.grinderwolf.smw.plugin.log.Logging;
+import com.grinderwolf.smw.plugin.world.IdleWorldUnloader;
+import com.grinderwolf.smw.plugin.world.WorldPoolManager;
+import com.grinderwolf.smw.plugin.world.WorldUnloader;
 import com.grinderwolf.smw.plugin.world.WorldUnlocker;
 import lombok.Getter;
 import org.bukkit.Bukkit;
@@ -23,6 +32,12 @@ import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class SMWPlugin extends JavaPlugin implements SlimePlugin {
 
@@ -30,6 +45,14 @@ public class SMWPlugin extends JavaPlugin implements SlimePlugin {
     private static SMWPlugin instance;
     @Getter
     private SlimeNMS nms;
+    @Getter
+    private WorldPoolManager poolManager;
+    @Getter
+    private WorldUnloader worldUnloader;
+    @Getter
+    private IdleWorldUnloader idleWorldUnloader;
+    @Getter
+    private final List<CachingLoader> cachingLoaders = new ArrayList<>();
 
     @Override
     public void onLoad() {
@@ -55,8 +78,13 @@ public class SMWPlugin extends JavaPlugin implements SlimePlugin {
 
         getCommand("smw").setExecutor(new CommandManager());
         getServer().getPluginManager().registerEvents(new WorldUnlocker(), this);
+        poolManager = new WorldPoolManager();
+        worldUnloader = new WorldUnloader();
+        idleWorldUnloader = new IdleWorldUnloader();
+        Bukkit.getScheduler().runTaskTimer(this, idleWorldUnloader, IdleWorldUnloader.CHECK_INTERVAL, IdleWorldUnloader.CHECK_INTERVAL);
 
         try {
+            loadMainConfig();
             loadWorlds();
         } catch (NullPointerException | IOException ex) {
             Logging.error("Failed to load worlds from config file:");
@@ -64,6 +92,17 @@ public class SMWPlugin extends JavaPlugin implements SlimePlugin {
         }
     }
 
+    @Override
+    public void onDisable() {
+        // Saves that are still waiting to be sent or synced would be lost once the server stops. Cached loaders go first,
+        // as they might be sending saves to the file loader
+        for (CachingLoader cachingLoader : cachingLoaders) {
+            cachingLoader.flush();
+        }
+
+        ((FileLoader) SlimeLoaders.get("file")).flush();
+    }
+
     private SlimeNMS loadInjector() throws InvalidVersionException {
         String version = Bukkit.getServer().getClass().getPackage().getName();
         String nmsVersion = version.substring(version.lastIndexOf('.') + 1);
@@ -78,6 +117,56 @@ public class SMWPlugin extends JavaPlugin implements SlimePlugin {
         }
     }
 
+    private void loadMainConfig() throws IOException {
+        int chunkLoadBudget = ConfigManager.getFile("main").getInt("chunkLoadBudget", 0);
+
+        if (chunkLoadBudget < 0) {
+            Logging.error("Invalid chunk load budget " + chunkLoadBudget + ", disabling it.");
+            chunkLoadBudget = 0;
+        }
+
+        nms.setGlobalChunkLoadBudget(chunkLoadBudget);
+
+        int lockTimeout = ConfigManager.getFile("main").getInt("lockTimeout", 60);
+
+        if (lockTimeout < 0) {
+            Logging.error("Invalid lock timeout " + lockTimeout + ", disabling it.");
+            lockTimeout = 0;
+        }
+
+        int saveSyncInterval = ConfigManager.getFile("main").getInt("saveSyncInterval", 0);
+
+        if (saveSyncInterval < 0) {
+            Logging.error("Invalid save sync interval " + saveSyncInterval + ", disabling it.");
+            saveSyncInterval = 0;
+        }
+
+        FileLoader fileLoader = (FileLoader) SlimeLoaders.get("file");
+        fileLoader.setLockTimeout(lockTimeout * 1000L);
+        fileLoader.setSyncInterval(saveSyncInterval);
+
+        ConfigurationSection cacheConfig = ConfigManager.getFile("main").getConfigurationSection("cache");
+
+        if (cacheConfig != null) {
+            long memorySize = Math.max(cacheConfig.getLong("memorySize", 128), 0) * 1024 * 1024;
+            long diskSize = Math.max(cacheConfig.getLong("diskSize", 1024), 0) * 1024 * 1024;
+            boolean writeBehind = cacheConfig.getBoolean("writeBehind", false);
+
+            for (String loaderName : cacheConfig.getStringList("loaders")) {
+                SlimeLoader loader = SlimeLoaders.get(loaderName);
+
+                if (loader == null) {
+                    Logging.error("Couldn't cache loader " + loaderName + ": unknown loader.");
+                    continue;
+                }
+
+                CachingLoader cachingLoader = new CachingLoader(loaderName, loader, memorySize, diskSize, writeBehind);
+                SlimeLoaders.add(loaderName + "-cached", cachingLoader);
+                cachingLoaders.add(cachingLoader);
+            }
+        }
+    }
+
     private void loadWorlds() throws IOException {
         ConfigurationSection config = ConfigManager.getFile("worlds").getConfigurationSection("worlds");
 
@@ -87,6 +176,15 @@ public class SMWPlugin extends JavaPlugin implements SlimePlugin {
 
             for (String world : config.getKeys(false)) {
                 ConfigurationSection worldConfig = config.getConfigurationSection(world);
+                int poolSize = worldConfig.getInt("poolSize", 0);
+
+                if (poolSize > 0) {
+                    try {
+                        poolManager.createPool(world, getLoaderFromConfig(worldConfig), getPropertiesFromConfig(worldConfig), poolSize);
+                    } catch (IllegalArgumentException ex) {
+                        Logging.error("Couldn't create world pool " + world + ": " + ex.getMessage() + ".");
+                    }
+                }
 
                 if (worldConfig.getBoolean("loadOnStartup", true)) {
                     try {
@@ -124,6 +222,25 @@ public class SMWPlugin extends JavaPlugin implements SlimePlugin {
         }
 
         // Config data retrieval
+        SlimeLoader loader = getLoaderFromConfig(worldConfig);
+        SlimeWorld.SlimeProperties properties = getPropertiesFromConfig(worldConfig);
+
+        // Chunks dropped from memory are read again one region at a time, so the loader has to be able to read parts of the world
+        if (properties.getMemoryLimit() > 0 && (!properties.isRegionFormat() || !(loader instanceof RangeReadLoader))) {
+            throw new IllegalArgumentException("memoryLimit requires regionFormat and a loader that can read parts of a world (like the file loader)");
+        }
+
+        // Unloaded chunks are kept as changes that are never saved, so they can't be dropped either
+        if (properties.getMemoryLimit() > 0 && properties.isReadOnly() && !properties.isDiscardChanges()) {
+            Logging.warning("World " + worldConfig.getName() + " is read-only and doesn't discard changes, so chunks that get "
+                    + "unloaded are kept in memory regardless of its memoryLimit.");
+        }
+
+        // Actual world load
+        loadWorld(loader, worldConfig.getName(), properties);
+    }
+
+    private SlimeLoader getLoaderFromConfig(ConfigurationSection worldConfig) {
         String loaderString = worldConfig.getString("loader", "");
         SlimeLoader loader = SlimeLoaders.get(loaderString);
 
@@ -131,6 +248,10 @@ public class SMWPlugin extends JavaPlugin implements SlimePlugin {
             throw new IllegalArgumentException("unknown loader '" + loaderString + "'");
         }
 
+        return loader;
+    }
+
+    private SlimeWorld.SlimeProperties getPropertiesFromConfig(ConfigurationSection worldConfig) {
         String difficultyString = worldConfig.getString("difficulty", "peaceful");
         Difficulty difficulty;
 
@@ -157,12 +278,73 @@ public class SMWPlugin extends JavaPlugin implements SlimePlugin {
         boolean allowAnimals = worldConfig.getBoolean("allowAnimals", true);
 
         boolean readOnly = worldConfig.getBoolean("readOnly", false);
+        boolean discardChanges = worldConfig.getBoolean("discardChanges", false);
+        int preloadRadius = worldConfig.getInt("preloadRadius", 0);
+
+        if (preloadRadius < 0) {
+            throw new IllegalArgumentException("invalid preload radius " + preloadRadius);
+        }
 
-        SlimeWorld.SlimeProperties properties = SlimeWorld.SlimeProperties.builder().spawnX(spawnX).spawnY(spawnY).spawnZ(spawnZ)
-                .difficulty(difficulty.getValue()).allowMonsters(allowMonsters).allowAnimals(allowAnimals).readOnly(readOnly).build();
+        int chunkLoadBudget = worldConfig.getInt("chunkLoadBudget", 0);
 
-        // Actual world load
-        loadWorld(loader, worldConfig.getName(), properties);
+        if (chunkLoadBudget < 0) {
+            throw new IllegalArgumentException("invalid chunk load budget " + chunkLoadBudget);
+        }
+
+        int chunkCompressionDelay = worldConfig.getInt("chunkCompressionDelay", 0);
+
+        if (chunkCompressionDelay < 0) {
+            throw new IllegalArgumentException("invalid chunk compression delay " + chunkCompressionDelay);
+        }
+
+        int memoryLimit = worldConfig.getInt("memoryLimit", 0);
+
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("invalid memory limit " + memoryLimit);
+        }
+
+        int idleTimeout = worldConfig.getInt("idleTimeout", 0);
+
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("invalid idle timeout " + idleTimeout);
+        }
+
+        boolean offHeapStorage = worldConfig.getBoolean("offHeapStorage", false);
+        boolean slabAllocation = worldConfig.getBoolean("slabAllocation", false);
+        boolean sharedSections = worldConfig.getBoolean("sharedSections", false);
+        boolean regionFormat = worldConfig.getBoolean("regionFormat", false);
+        String baseWorld = worldConfig.getString("baseWorld");
+
+        if (worldConfig.getName().equals(baseWorld)) {
+            throw new IllegalArgumentException("a world can't be its own base world");
+        }
+
+        String entityLoadModeString = worldConfig.getString("entityLoading", "immediate");
+        EntityLoadMode entityLoadMode;
+
+        try {
+            entityLoadMode = Enum.valueOf(EntityLoadMode.class, entityLoadModeString.toUpperCase().replace(' ', '_'));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("unknown entity loading mode '" + entityLoadModeString + "'");
+        }
+
+        Set<TickSubsystem> disabledTicks = EnumSet.noneOf(TickSubsystem.class);
+
+        for (String subsystemString : worldConfig.getStringList("disabledTicks")) {
+            try {
+                disabledTicks.add(Enum.valueOf(TickSubsystem.class, subsystemString.toUpperCase().replace(' ', '_')));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("unknown tick subsystem '" + subsystemString + "'");
+            }
+        }
+
+        return SlimeWorld.SlimeProperties.builder().spawnX(spawnX).spawnY(spawnY).spawnZ(spawnZ)
+                .difficulty(difficulty.getValue()).allowMonsters(allowMonsters).allowAnimals(allowAnimals).readOnly(readOnly)
+                .discardChanges(discardChanges).preloadRadius(preloadRadius).chunkLoadBudget(chunkLoadBudget)
+                .chunkCompressionDelay(chunkCompressionDelay).offHeapStorage(offHeapStorage).slabAllocation(slabAllocation)
+                .sharedSections(sharedSections).regionFormat(regionFormat).baseWorld(baseWorld).memoryLimit(memoryLimit)
+                .idleTimeout(idleTimeout).entityLoadMode(entityLoadMode)
+                .disabledTicks(Collections.unmodifiableSet(disabledTicks)).build();
     }
 
     @Override
@@ -171,12 +353,38 @@ public class SMWPlugin extends JavaPlugin implements SlimePlugin {
         long start = System.currentTimeMillis();
 
         Logging.info("Loading world " + worldName + ".");
-        byte[] serializedWorld = loader.loadWorld(worldName, properties.isReadOnly());
-        SlimeWorld world = LoaderUtils.deserializeWorld(loader, worldName, serializedWorld, properties);
+        SlimeWorld world;
+
+        // Worlds split into regions are read one region at a time if the loader can do it, so they don't have to fit in a single array
+        if (loader instanceof RangeReadLoader) {
+            try (WorldRangeReader reader = ((RangeReadLoader) loader).loadWorldRanges(worldName, properties.isReadOnly())) {
+                world = LoaderUtils.deserializeWorld(loader, worldName, reader, properties);
+            }
+        } else {
+            byte[] serializedWorld = loader.loadWorld(worldName, properties.isReadOnly());
+            world = LoaderUtils.deserializeWorld(loader, worldName, serializedWorld, properties);
+        }
+
         nms.generateWorld(world);
 
         Logging.info("World " + worldName + " loaded in " + (System.currentTimeMillis() - start) + "ms.");
 
         return world;
     }
+
+    @Override
+    public CompletableFuture<Void> unloadWorld(SlimeWorld world, boolean save) {
+        return worldUnloader.unloadWorld(world, save);
+    }
+
+    @Override
+    public SlimeWorld claimWorld(String templateName) throws UnknownWorldException, IOException, CorruptedWorldException,
+            NewerFormatException, WorldInUseException {
+        return poolManager.claimWorld(templateName);
+    }
+
+    @Override
+    public boolean releaseWorld(SlimeWorld world) {
+        return poolManager.releaseWorld(world);
+    }
 }
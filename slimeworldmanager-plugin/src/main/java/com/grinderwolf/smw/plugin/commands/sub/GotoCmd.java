@@ -1,6 +1,9 @@
 package com.grinderwolf.smw.plugin.commands.sub;
 
+import com.grinderwolf.smw.plugin.SMWPlugin;
 import com.grinderwolf.smw.plugin.commands.CommandManager;
+import com.grinderwolf.smw.plugin.log.Logging;
+import com.grinderwolf.smw.plugin.world.IdleWorldUnloader;
 import lombok.Getter;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -22,8 +25,9 @@ public class GotoCmd implements Subcommand {
     public boolean onCommand(CommandSender sender, String[] args) {
         if (args.length > 0) {
             World world = Bukkit.getWorld(args[0]);
+            IdleWorldUnloader idleWorldUnloader = SMWPlugin.getInstance().getIdleWorldUnloader();
 
-            if (world == null) {
+            if (world == null && !idleWorldUnloader.wasUnloaded(args[0])) {
                 sender.sendMessage(CommandManager.PREFIX + ChatColor.RED + "World " + args[0] + " does not exist!");
 
                 return true;
@@ -49,21 +53,46 @@ public class GotoCmd implements Subcommand {
                 return true;
             }
 
-            sender.sendMessage(CommandManager.PREFIX + ChatColor.GRAY + "Teleporting " + (target.getName().equals(sender.getName())
-                    ? "yourself" : target.getName()) + " to " + world.getName() + "...");
+            if (world != null) {
+                teleport(sender, target, world);
 
-            Location spawnLocation = world.getSpawnLocation();
-
-            // Safe Spawn Location
-            while (spawnLocation.getBlock().getType() != Material.AIR || spawnLocation.getBlock().getRelative(BlockFace.UP).getType() != Material.AIR) {
-                spawnLocation.add(0, 1, 0);
+                return true;
             }
 
-            target.teleport(spawnLocation);
+            // The world was unloaded for being idle, so it has to be loaded again
+            String worldName = args[0];
+            sender.sendMessage(CommandManager.PREFIX + ChatColor.GRAY + "Loading world " + worldName + "...");
+
+            // The future might be completed by another thread
+            idleWorldUnloader.reloadWorld(worldName).whenComplete((loadedWorld, throwable) -> Bukkit.getScheduler()
+                    .runTask(SMWPlugin.getInstance(), () -> {
+                if (throwable != null) {
+                    sender.sendMessage(CommandManager.PREFIX + ChatColor.RED + "Failed to load world " + worldName
+                            + ". Take a look at the server console for more information.");
+                    Logging.error("Failed to load world " + worldName + ":");
+                    throwable.printStackTrace();
+                } else if (target.isOnline()) {
+                    teleport(sender, target, loadedWorld);
+                }
+            }));
 
             return true;
         }
 
         return false;
     }
+
+    private static void teleport(CommandSender sender, Player target, World world) {
+        sender.sendMessage(CommandManager.PREFIX + ChatColor.GRAY + "Teleporting " + (target.getName().equals(sender.getName())
+                ? "yourself" : target.getName()) + " to " + world.getName() + "...");
+
+        Location spawnLocation = world.getSpawnLocation();
+
+        // Safe Spawn Location
+        while (spawnLocation.getBlock().getType() != Material.AIR || spawnLocation.getBlock().getRelative(BlockFace.UP).getType() != Material.AIR) {
+            spawnLocation.add(0, 1, 0);
+        }
+
+        target.teleport(spawnLocation);
+    }
 }
@@ -0,0 +1,103 @@
+package com.grinderwolf.smw.plugin.commands.sub;
+
+import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.api.world.WorldMemoryUsage;
+import com.grinderwolf.smw.plugin.SMWPlugin;
+import com.grinderwolf.smw.plugin.commands.CommandManager;
+import com.grinderwolf.smw.plugin.loaders.CachingLoader;
+import com.grinderwolf.smw.plugin.world.WorldPool;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+@Getter
+public class MemoryCmd implements Subcommand {
+
+    private final String usage = "memory [world]";
+    private final String description = "Shows how much memory is used by the slime worlds.";
+    private final String permission = "smw.memory";
+
+    @Override
+    public boolean onCommand(CommandSender sender, String[] args) {
+        if (args.length > 0) {
+            World world = Bukkit.getWorld(args[0]);
+            SlimeWorld slimeWorld = world == null ? null : SMWPlugin.getInstance().getNms().getSlimeWorld(world);
+
+            if (slimeWorld == null) {
+                sender.sendMessage(CommandManager.PREFIX + ChatColor.RED + "World " + args[0] + " is not a loaded slime world!");
+
+                return true;
+            }
+
+            WorldMemoryUsage usage = slimeWorld.getMemoryUsage();
+
+            sender.sendMessage(CommandManager.PREFIX + ChatColor.GRAY + "Memory usage of world " + ChatColor.AQUA + slimeWorld.getName()
+                    + ChatColor.GRAY + ": " + ChatColor.YELLOW + formatBytes(usage.getTotalUsage()));
+            sender.sendMessage(ChatColor.GRAY + " - Loaded chunks: " + ChatColor.YELLOW + usage.getLoadedChunks() + ChatColor.GRAY
+                    + " (" + usage.getCompressedChunkCount() + " compressed)");
+            sender.sendMessage(ChatColor.GRAY + " - Block and light data: " + ChatColor.YELLOW + formatBytes(usage.getSections()));
+            sender.sendMessage(ChatColor.GRAY + " - Off-heap block and light data: " + ChatColor.YELLOW + formatBytes(usage.getOffHeapSections()));
+            sender.sendMessage(ChatColor.GRAY + " - Slab allocated light and block data: " + ChatColor.YELLOW + formatBytes(usage.getSlabSections()));
+            sender.sendMessage(ChatColor.GRAY + " - Block and light data shared with other worlds: " + ChatColor.YELLOW
+                    + formatBytes(usage.getSharedSections()));
+            sender.sendMessage(ChatColor.GRAY + " - Height maps and biomes: " + ChatColor.YELLOW + formatBytes(usage.getHeightMapsAndBiomes()));
+            sender.sendMessage(ChatColor.GRAY + " - Entities and tile entities: " + ChatColor.YELLOW + formatBytes(usage.getEntities())
+                    + ChatColor.GRAY + " (" + formatBytes(usage.getSerializedEntities()) + " still serialized)");
+            sender.sendMessage(ChatColor.GRAY + " - Compressed chunks: " + ChatColor.YELLOW + formatBytes(usage.getCompressedChunks()));
+
+            return true;
+        }
+
+        long totalUsage = 0;
+        sender.sendMessage(CommandManager.PREFIX + ChatColor.GRAY + "Memory usage of the slime worlds:");
+
+        for (World world : Bukkit.getWorlds()) {
+            SlimeWorld slimeWorld = SMWPlugin.getInstance().getNms().getSlimeWorld(world);
+
+            if (slimeWorld != null) {
+                WorldMemoryUsage usage = slimeWorld.getMemoryUsage();
+
+                // Shared sections would be counted once for every world using them
+                totalUsage += usage.getOwnedUsage();
+
+                sender.sendMessage(ChatColor.GRAY + " - " + ChatColor.AQUA + slimeWorld.getName() + ChatColor.GRAY + ": "
+                        + ChatColor.YELLOW + formatBytes(usage.getOwnedUsage()) + ChatColor.GRAY + " (" + usage.getLoadedChunks() + " chunks, "
+                        + formatBytes(usage.getSharedSections()) + " shared)");
+            }
+        }
+
+        for (WorldPool pool : SMWPlugin.getInstance().getPoolManager().getPools()) {
+            long templateSize = pool.getTemplateSize();
+            totalUsage += templateSize;
+
+            sender.sendMessage(ChatColor.GRAY + " - Template " + ChatColor.AQUA + pool.getTemplateName() + ChatColor.GRAY + ": "
+                    + ChatColor.YELLOW + formatBytes(templateSize));
+        }
+
+        for (CachingLoader cachingLoader : SMWPlugin.getInstance().getCachingLoaders()) {
+            long cacheSize = cachingLoader.getMemoryUsage();
+            totalUsage += cacheSize;
+
+            sender.sendMessage(ChatColor.GRAY + " - Cached copies of " + ChatColor.AQUA + cachingLoader.getLoaderName() + ChatColor.GRAY
+                    + " worlds: " + ChatColor.YELLOW + formatBytes(cacheSize));
+        }
+
+        sender.sendMessage(ChatColor.GRAY + "Total (not counting shared block and light data): " + ChatColor.YELLOW + formatBytes(totalUsage));
+
+        return true;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024D);
+        }
+
+        return String.format("%.1f MB", bytes / (1024D * 1024D));
+    }
+}
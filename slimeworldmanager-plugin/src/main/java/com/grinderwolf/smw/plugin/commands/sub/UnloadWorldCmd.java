@@ -1,6 +1,7 @@
 package com.grinderwolf.smw.plugin.commands.sub;
 
-
+import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.plugin.SMWPlugin;
 import com.grinderwolf.smw.plugin.commands.CommandManager;
 import lombok.Getter;
 import org.bukkit.Bukkit;
@@ -26,6 +27,24 @@ public class UnloadWorldCmd implements Subcommand {
                 return true;
             }
 
+            SlimeWorld slimeWorld = SMWPlugin.getInstance().getNms().getSlimeWorld(world);
+
+            if (slimeWorld != null) { // Slime worlds are saved in the background
+                String worldName = world.getName();
+
+                // The future is completed by the thread that saved the world
+                SMWPlugin.getInstance().unloadWorld(slimeWorld, true).whenComplete((result, throwable) -> Bukkit.getScheduler()
+                        .runTask(SMWPlugin.getInstance(), () -> {
+                    if (throwable != null) {
+                        sender.sendMessage(CommandManager.PREFIX + ChatColor.RED + "Failed to unload world " + worldName + ": " + throwable.getMessage());
+                    } else {
+                        sender.sendMessage(CommandManager.PREFIX + ChatColor.GRAY + "World " + worldName + " unloaded correctly.");
+                    }
+                }));
+
+                return true;
+            }
+
             if (Bukkit.unloadWorld(world, true)) {
                 sender.sendMessage(CommandManager.PREFIX + ChatColor.GRAY + "World " + args[0] + " unloaded correctly.");
             } else {
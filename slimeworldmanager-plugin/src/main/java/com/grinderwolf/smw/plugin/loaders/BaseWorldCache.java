@@ -0,0 +1,97 @@
+package com.grinderwolf.smw.plugin.loaders;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.grinderwolf.smw.api.exceptions.CorruptedWorldException;
+import com.grinderwolf.smw.api.exceptions.NewerFormatException;
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+import com.grinderwolf.smw.api.loaders.SlimeLoader;
+import com.grinderwolf.smw.api.loaders.TimestampedLoader;
+import com.grinderwolf.smw.api.world.SlimeChunk;
+import com.grinderwolf.smw.api.world.SlimeChunkSection;
+import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.nms.BaseWorld;
+import com.grinderwolf.smw.nms.CraftSlimeWorld;
+import com.grinderwolf.smw.nms.WorldMemoryTracker;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Keeps the worlds other worlds are saved as differences from, so they're not read again every time one of those is loaded
+class BaseWorldCache {
+
+    private static final Map<Map.Entry<SlimeLoader, String>, SoftReference<CachedBaseWorld>> cachedWorlds = new HashMap<>();
+
+    // A cached copy with the expected hash is always the right one, no matter what the loader has now
+    static CachedBaseWorld get(SlimeLoader loader, String worldName, byte[] expectedHash) throws IOException, CorruptedWorldException, NewerFormatException {
+        Map.Entry<SlimeLoader, String> key = new AbstractMap.SimpleImmutableEntry<>(loader, worldName);
+        CachedBaseWorld cachedWorld;
+
+        synchronized (cachedWorlds) {
+            SoftReference<CachedBaseWorld> reference = cachedWorlds.get(key);
+            cachedWorld = reference != null ? reference.get() : null;
+        }
+
+        if (cachedWorld != null && expectedHash != null && Arrays.equals(expectedHash, cachedWorld.baseWorld.getHash())) {
+            return cachedWorld;
+        }
+
+        try {
+            long timestamp = loader instanceof TimestampedLoader ? ((TimestampedLoader) loader).getLastModified(worldName) : Long.MIN_VALUE;
+
+            if (cachedWorld != null && timestamp != Long.MIN_VALUE && timestamp == cachedWorld.timestamp) {
+                return cachedWorld;
+            }
+
+            byte[] serializedWorld = loader.loadWorld(worldName, true);
+            SlimeWorld world = LoaderUtils.deserializeWorld(loader, worldName, serializedWorld, SlimeWorld.SlimeProperties.builder().build());
+            Map<Long, SlimeChunk> chunks = ((CraftSlimeWorld) world).getChunks();
+
+            // Every world based on this one uses the same sections, so they're not counted as memory of any of them
+            for (SlimeChunk chunk : chunks.values()) {
+                for (SlimeChunkSection section : chunk.getSections()) {
+                    if (section != null) {
+                        WorldMemoryTracker.markShared(section);
+                    }
+                }
+            }
+
+            cachedWorld = new CachedBaseWorld(chunks, timestamp, createBaseWorld(worldName, serializedWorld, chunks));
+        } catch (UnknownWorldException | WorldInUseException ex) {
+            throw new IOException("Failed to read base world " + worldName, ex);
+        }
+
+        synchronized (cachedWorlds) {
+            cachedWorlds.put(key, new SoftReference<>(cachedWorld));
+        }
+
+        return cachedWorld;
+    }
+
+    private static BaseWorld createBaseWorld(String worldName, byte[] serializedWorld, Map<Long, SlimeChunk> chunks) throws IOException {
+        Map<Long, HashCode> chunkHashes = new HashMap<>();
+
+        for (Map.Entry<Long, SlimeChunk> entry : chunks.entrySet()) {
+            chunkHashes.put(entry.getKey(), CraftSlimeWorld.hashChunk(entry.getValue()));
+        }
+
+        return new BaseWorld(worldName, Hashing.murmur3_128().hashBytes(serializedWorld).asBytes(), chunkHashes);
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    static class CachedBaseWorld {
+
+        // Shared by every world based on this one, as loaded chunks are never modified
+        private final Map<Long, SlimeChunk> chunks;
+        private final long timestamp; // Long.MIN_VALUE if the loader can't tell when the world was saved
+        private final BaseWorld baseWorld;
+    }
+}
@@ -0,0 +1,401 @@
+package com.grinderwolf.smw.plugin.loaders;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+import com.grinderwolf.smw.api.loaders.SlimeLoader;
+import com.grinderwolf.smw.api.loaders.StatLoader;
+import com.grinderwolf.smw.api.loaders.TimestampedLoader;
+import com.grinderwolf.smw.api.loaders.WorldStat;
+import com.grinderwolf.smw.plugin.log.Logging;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps copies of the worlds of another loader in memory and on the local disk, so loading them again doesn't have to go
+// through the (possibly remote) loader. Loaders that can tell when a world was last saved (and how big it is, if they can)
+// are asked before using a cached copy, while the copies of other loaders are used until the world is saved again through
+// this server
+public class CachingLoader implements SlimeLoader {
+
+    private static final File CACHE_DIR = new File("slime_cache");
+    private static final ExecutorService WRITE_BEHIND_SERVICE = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("SMW Cache Writer").setDaemon(true).build());
+    private static final String CACHE_EXTENSION = ".slime_cached";
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final long NO_SIZE = -1L;
+
+    @Getter
+    private final String loaderName;
+    @Getter
+    private final SlimeLoader delegate;
+    private final File cacheDir;
+    private final long memoryLimit;
+    private final long diskLimit;
+
+    // If enabled, saves are sent to the delegate in the background. A world is always sent before it's unlocked
+    @Getter
+    private final boolean writeBehind;
+    private volatile boolean flushed;
+
+    private final LinkedHashMap<String, CachedWorld> memoryCache = new LinkedHashMap<>(16, 0.75F, true);
+    private long memoryUsage;
+
+    private final LinkedHashMap<String, Long> diskCache = new LinkedHashMap<>(16, 0.75F, true);
+    private long diskUsage;
+
+    private final Map<String, byte[]> pendingWrites = new HashMap<>();
+    private final Object writeLock = new Object();
+
+    public CachingLoader(String loaderName, SlimeLoader delegate, long memoryLimit, long diskLimit, boolean writeBehind) {
+        this.loaderName = loaderName;
+        this.delegate = delegate;
+        this.cacheDir = new File(CACHE_DIR, loaderName);
+        this.memoryLimit = memoryLimit;
+        this.diskLimit = diskLimit;
+        this.writeBehind = writeBehind;
+
+        cacheDir.mkdirs();
+        File[] files = cacheDir.listFiles();
+
+        if (files != null) {
+            // Least recently written files go first, so they're the first to be evicted
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+            for (File file : files) {
+                String fileName = file.getName();
+
+                // Files of older versions of the cache are deleted, as they don't have the same header
+                if (fileName.endsWith(CACHE_EXTENSION) && diskLimit > 0) {
+                    diskCache.put(fileName.substring(0, fileName.length() - CACHE_EXTENSION.length()), file.length());
+                    diskUsage += file.length();
+                } else {
+                    file.delete();
+                }
+            }
+
+            evictDiskEntries();
+        }
+    }
+
+    @Override
+    public byte[] loadWorld(String worldName, boolean readOnly) throws UnknownWorldException, WorldInUseException, IOException {
+        if (readOnly) {
+            synchronized (pendingWrites) {
+                byte[] pendingWrite = pendingWrites.get(worldName);
+
+                if (pendingWrite != null) {
+                    return pendingWrite;
+                }
+            }
+        }
+
+        // The stat is read before the world itself, so a save made in between can only make the copy look outdated
+        WorldStat stat = getStat(worldName);
+
+        // Worlds that are not read-only have to be locked by the delegate, which also returns them anyway
+        if (readOnly) {
+            CachedWorld cachedWorld = getCachedWorld(worldName);
+
+            if (cachedWorld != null && (stat == null || cachedWorld.isSameSave(stat))) {
+                return cachedWorld.data;
+            }
+        }
+
+        byte[] serializedWorld = delegate.loadWorld(worldName, readOnly);
+        cacheWorld(worldName, new CachedWorld(serializedWorld, stat));
+
+        return serializedWorld;
+    }
+
+    // Timestamps alone might not change if the world is saved twice in a short time (like file modification times, which
+    // might only have a resolution of one second), so the size is also compared if the delegate can tell it
+    private WorldStat getStat(String worldName) throws UnknownWorldException, IOException {
+        try {
+            if (delegate instanceof StatLoader) {
+                return ((StatLoader) delegate).getWorldStat(worldName);
+            } else if (delegate instanceof TimestampedLoader) {
+                return new WorldStat(NO_SIZE, ((TimestampedLoader) delegate).getLastModified(worldName));
+            }
+        } catch (UnknownWorldException ex) {
+            invalidate(worldName);
+
+            throw ex;
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean worldExists(String worldName) {
+        synchronized (pendingWrites) {
+            if (pendingWrites.containsKey(worldName)) {
+                return true;
+            }
+        }
+
+        return delegate.worldExists(worldName);
+    }
+
+    @Override
+    public void saveWorld(String worldName, byte[] serializedWorld) throws IOException {
+        if (writeBehind && !flushed) {
+            synchronized (pendingWrites) {
+                pendingWrites.put(worldName, serializedWorld);
+            }
+
+            cacheWorld(worldName, new CachedWorld(serializedWorld, null));
+            WRITE_BEHIND_SERVICE.execute(() -> {
+                try {
+                    flushWrite(worldName);
+                } catch (IOException ex) {
+                    Logging.error("Failed to save world " + worldName + ", trying again when it's unlocked:");
+                    ex.printStackTrace();
+                }
+            });
+
+            // Pending saves might have been flushed while this one was being queued
+            if (flushed) {
+                flushWrite(worldName);
+            }
+        } else {
+            synchronized (writeLock) {
+                delegate.saveWorld(worldName, serializedWorld);
+                cacheWorld(worldName, new CachedWorld(serializedWorld, getSavedStat(worldName)));
+            }
+        }
+    }
+
+    // Sends the pending save of a world to the delegate, if there's any
+    private void flushWrite(String worldName) throws IOException {
+        synchronized (writeLock) {
+            byte[] serializedWorld;
+
+            synchronized (pendingWrites) {
+                serializedWorld = pendingWrites.get(worldName);
+            }
+
+            if (serializedWorld == null) {
+                return;
+            }
+
+            delegate.saveWorld(worldName, serializedWorld);
+
+            synchronized (pendingWrites) {
+                // The world might have been saved again in the meantime
+                if (!pendingWrites.remove(worldName, serializedWorld)) {
+                    return;
+                }
+            }
+
+            cacheWorld(worldName, new CachedWorld(serializedWorld, getSavedStat(worldName)));
+        }
+    }
+
+    // Called when the server stops. Worlds are saved once more after plugins are disabled, so every save made from now on
+    // is sent right away too
+    public void flush() {
+        flushed = true;
+        List<String> worldNames;
+
+        synchronized (pendingWrites) {
+            worldNames = new ArrayList<>(pendingWrites.keySet());
+        }
+
+        for (String worldName : worldNames) {
+            try {
+                flushWrite(worldName);
+            } catch (IOException ex) {
+                Logging.error("Failed to save world " + worldName + ":");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private WorldStat getSavedStat(String worldName) throws IOException {
+        try {
+            return getStat(worldName);
+        } catch (UnknownWorldException ex) {
+            throw new IOException("World " + worldName + " doesn't exist right after saving it", ex);
+        }
+    }
+
+    @Override
+    public void unlockWorld(String worldName) throws IOException {
+        // Anyone else loading the world must get the latest save
+        flushWrite(worldName);
+        delegate.unlockWorld(worldName);
+    }
+
+    @Override
+    public boolean isWorldLocked(String worldName) throws IOException {
+        return delegate.isWorldLocked(worldName);
+    }
+
+    // Memory used by the copies of the worlds kept in memory
+    public long getMemoryUsage() {
+        synchronized (memoryCache) {
+            return memoryUsage;
+        }
+    }
+
+    private CachedWorld getCachedWorld(String worldName) {
+        synchronized (memoryCache) {
+            CachedWorld cachedWorld = memoryCache.get(worldName);
+
+            if (cachedWorld != null) {
+                return cachedWorld;
+            }
+        }
+
+        CachedWorld cachedWorld;
+
+        synchronized (diskCache) {
+            if (diskCache.get(worldName) == null) {
+                return null;
+            }
+
+            File file = new File(cacheDir, worldName + CACHE_EXTENSION);
+
+            try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+                long timestamp = inputStream.readLong();
+                long size = inputStream.readLong();
+                byte[] data = new byte[(int) file.length() - 16];
+                inputStream.readFully(data);
+                cachedWorld = new CachedWorld(data, timestamp != NO_TIMESTAMP ? new WorldStat(size, timestamp) : null);
+            } catch (IOException ex) {
+                Logging.warning("Failed to read the cached copy of world " + worldName + ", loading it again.");
+                removeDiskEntry(worldName);
+
+                return null;
+            }
+        }
+
+        synchronized (memoryCache) {
+            putMemoryEntry(worldName, cachedWorld);
+        }
+
+        return cachedWorld;
+    }
+
+    private void cacheWorld(String worldName, CachedWorld cachedWorld) {
+        synchronized (memoryCache) {
+            putMemoryEntry(worldName, cachedWorld);
+        }
+
+        synchronized (diskCache) {
+            long fileSize = cachedWorld.data.length + 16L;
+
+            if (fileSize > diskLimit) {
+                removeDiskEntry(worldName);
+
+                return;
+            }
+
+            File tempFile = new File(cacheDir, worldName + CACHE_EXTENSION + "_tmp");
+            File file = new File(cacheDir, worldName + CACHE_EXTENSION);
+
+            try {
+                try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(tempFile))) {
+                    outputStream.writeLong(cachedWorld.stat != null ? cachedWorld.stat.getLastModified() : NO_TIMESTAMP);
+                    outputStream.writeLong(cachedWorld.stat != null ? cachedWorld.stat.getSize() : NO_SIZE);
+                    outputStream.write(cachedWorld.data);
+                }
+
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                Logging.error("Failed to cache world " + worldName + " on disk:");
+                ex.printStackTrace();
+                tempFile.delete();
+                removeDiskEntry(worldName);
+
+                return;
+            }
+
+            Long oldSize = diskCache.put(worldName, fileSize);
+            diskUsage += fileSize - (oldSize == null ? 0 : oldSize);
+            evictDiskEntries();
+        }
+    }
+
+    private void putMemoryEntry(String worldName, CachedWorld cachedWorld) {
+        CachedWorld oldWorld = memoryCache.remove(worldName);
+
+        if (oldWorld != null) {
+            memoryUsage -= oldWorld.data.length;
+        }
+
+        if (cachedWorld.data.length > memoryLimit) {
+            return;
+        }
+
+        memoryCache.put(worldName, cachedWorld);
+        memoryUsage += cachedWorld.data.length;
+
+        for (Iterator<CachedWorld> iterator = memoryCache.values().iterator(); memoryUsage > memoryLimit && iterator.hasNext(); ) {
+            memoryUsage -= iterator.next().data.length;
+            iterator.remove();
+        }
+    }
+
+    private void evictDiskEntries() {
+        for (Iterator<Map.Entry<String, Long>> iterator = diskCache.entrySet().iterator(); diskUsage > diskLimit && iterator.hasNext(); ) {
+            Map.Entry<String, Long> entry = iterator.next();
+            diskUsage -= entry.getValue();
+            iterator.remove();
+            new File(cacheDir, entry.getKey() + CACHE_EXTENSION).delete();
+        }
+    }
+
+    private void removeDiskEntry(String worldName) {
+        Long size = diskCache.remove(worldName);
+
+        if (size != null) {
+            diskUsage -= size;
+            new File(cacheDir, worldName + CACHE_EXTENSION).delete();
+        }
+    }
+
+    private void invalidate(String worldName) {
+        synchronized (memoryCache) {
+            CachedWorld oldWorld = memoryCache.remove(worldName);
+
+            if (oldWorld != null) {
+                memoryUsage -= oldWorld.data.length;
+            }
+        }
+
+        synchronized (diskCache) {
+            removeDiskEntry(worldName);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class CachedWorld {
+
+        private final byte[] data;
+        private final WorldStat stat; // Null if the delegate can't tell when the world was saved
+
+        private boolean isSameSave(WorldStat currentStat) {
+            return stat != null && stat.getLastModified() == currentStat.getLastModified() && stat.getSize() == currentStat.getSize();
+        }
+    }
+}
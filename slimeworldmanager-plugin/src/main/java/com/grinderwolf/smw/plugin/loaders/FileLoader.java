@@ -1,19 +1,69 @@
 package com.grinderwolf.smw.plugin.loaders;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
 import com.grinderwolf.smw.api.exceptions.WorldInUseException;
-import com.grinderwolf.smw.api.loaders.SlimeLoader;
+import com.grinderwolf.smw.api.loaders.RangeReadLoader;
+import com.grinderwolf.smw.api.loaders.StreamWriteLoader;
+import com.grinderwolf.smw.api.loaders.WorldRangeReader;
+import com.grinderwolf.smw.api.loaders.StatLoader;
+import com.grinderwolf.smw.api.loaders.WorldStat;
+import com.grinderwolf.smw.api.loaders.WorldWriter;
 import com.grinderwolf.smw.plugin.log.Logging;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
-public class FileLoader implements SlimeLoader {
+public class FileLoader implements StatLoader, RangeReadLoader, StreamWriteLoader {
 
     private static final File WORLD_DIR = new File("slime_worlds");
+    private static final ScheduledExecutorService BACKGROUND_SERVICE = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("SMW File Loader").setDaemon(true).build());
+
+    // Locks are leases: the owner keeps refreshing the timestamp in the lock file, and leases that
+    // haven't been refreshed for this amount of time (in milliseconds) are taken over. 0 means never.
+    // Lock file layout: heartbeat (long), owner ID (long)
+    @Getter
+    private long lockTimeout = 60000L;
+    private ScheduledFuture<?> heartbeatTask;
+
+    // Time (in milliseconds) saved worlds can wait before being synced to disk, so that saves of different worlds are synced
+    // together instead of one by one. 0 means every save is synced right away
+    @Getter
+    private volatile long syncInterval;
+    private ScheduledFuture<?> syncTask;
+    private final Set<String> pendingSaves = new HashSet<>();
+
+    private final Map<String, WorldLease> leases = new ConcurrentHashMap<>();
 
     {
         if (WORLD_DIR.exists() && !WORLD_DIR.isDirectory()) {
@@ -22,6 +72,40 @@ public class FileLoader implements SlimeLoader {
         }
 
         WORLD_DIR.mkdirs();
+        setLockTimeout(lockTimeout);
+    }
+
+    public synchronized void setLockTimeout(long lockTimeout) {
+        this.lockTimeout = lockTimeout;
+
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+        }
+
+        // Refresh leases often enough to survive a couple of missed heartbeats
+        long heartbeatInterval = lockTimeout > 0 ? Math.max(lockTimeout / 3, 1000L) : 20000L;
+        heartbeatTask = BACKGROUND_SERVICE.scheduleAtFixedRate(this::refreshLeases, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void setSyncInterval(long syncInterval) {
+        if (syncTask != null) {
+            syncTask.cancel(false);
+            syncTask = null;
+        }
+
+        this.syncInterval = syncInterval;
+
+        if (syncInterval > 0) {
+            syncTask = BACKGROUND_SERVICE.scheduleWithFixedDelay(this::syncPendingSaves, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        } else {
+            syncPendingSaves();
+        }
+    }
+
+    // Called when the server stops. Worlds are saved once more after plugins are disabled, so every save made from now on
+    // is synced right away too
+    public void flush() {
+        setSyncInterval(0);
     }
 
     @Override
@@ -31,58 +115,426 @@ public class FileLoader implements SlimeLoader {
         }
 
         if (!readOnly) {
-            File lockFile = new File(WORLD_DIR, worldName + ".slime_lock");
+            acquireLease(worldName);
+        }
+
+        try {
+            syncSave(worldName);
+
+            File file = new File(WORLD_DIR, worldName + ".slime");
+
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException ex) {
+            // Otherwise, the heartbeat would keep the world locked until the server stops
+            if (!readOnly) {
+                releaseLease(worldName);
+            }
+
+            throw ex;
+        }
+    }
+
+    @Override
+    public WorldRangeReader loadWorldRanges(String worldName, boolean readOnly) throws UnknownWorldException, IOException, WorldInUseException {
+        if (!worldExists(worldName)) {
+            throw new UnknownWorldException(worldName);
+        }
+
+        if (!readOnly) {
+            acquireLease(worldName);
+        }
+
+        try {
+            syncSave(worldName);
+
+            return openWorldRanges(worldName);
+        } catch (IOException | UnknownWorldException ex) {
+            if (!readOnly) {
+                releaseLease(worldName);
+            }
+
+            throw ex;
+        }
+    }
+
+    private void acquireLease(String worldName) throws IOException, WorldInUseException {
+        if (leases.containsKey(worldName)) {
+            throw new WorldInUseException(worldName);
+        }
+
+        File lockFile = new File(WORLD_DIR, worldName + ".slime_lock");
+        FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock fileLock = null;
+        boolean locked;
+
+        try {
+            fileLock = channel.tryLock();
+            locked = fileLock != null;
+        } catch (OverlappingFileLockException ex) { // Already locked by this server
+            locked = false;
+        } catch (IOException ex) { // Not every file system supports locking, so the heartbeat is all we've got
+            locked = true;
+        }
 
-            if (lockFile.exists()) {
+        try {
+            if (!locked) {
                 throw new WorldInUseException(worldName);
             }
 
-            lockFile.createNewFile();
+            // Servers on other machines might be using the world without holding an OS lock on the file
+            if (channel.size() >= 8) {
+                ByteBuffer buffer = ByteBuffer.allocate(8);
+                channel.read(buffer, 0);
+                long heartbeat = buffer.getLong(0);
 
-            try (FileOutputStream fileStream = new FileOutputStream(lockFile);
-                 DataOutputStream dataStream = new DataOutputStream(fileStream)) {
-                dataStream.writeLong(System.currentTimeMillis());
+                if (!isStale(heartbeat)) {
+                    throw new WorldInUseException(worldName);
+                }
+
+                Logging.warning("Taking over the lock of world " + worldName + ", as it hasn't been refreshed for "
+                        + (System.currentTimeMillis() - heartbeat) / 1000 + " seconds.");
+
+                // Older versions only wrote the timestamp once, and never refreshed it
+                if (channel.size() < 16) {
+                    Logging.warning("The lock of world " + worldName + " was created by an older version of the plugin. "
+                            + "If the server that created it is still using the world, stop it before loading the world again.");
+                }
             }
+
+            WorldLease lease = new WorldLease(lockFile, channel, fileLock, ThreadLocalRandom.current().nextLong());
+            lease.write();
+            leases.put(worldName, lease);
+        } catch (IOException | WorldInUseException ex) {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+
+            channel.close();
+
+            throw ex;
         }
+    }
 
-        File file = new File(WORLD_DIR, worldName + ".slime");
+    private boolean isStale(long heartbeat) {
+        return lockTimeout > 0 && System.currentTimeMillis() - heartbeat > lockTimeout;
+    }
 
-        return Files.readAllBytes(file.toPath());
+    private void refreshLeases() {
+        for (Map.Entry<String, WorldLease> entry : leases.entrySet()) {
+            try {
+                if (!entry.getValue().isLost() && !entry.getValue().refresh()) {
+                    Logging.error("The lock of world " + entry.getKey() + " has been taken over by another server. The world won't be saved anymore.");
+                }
+            } catch (IOException ex) {
+                Logging.error("Failed to refresh the lock of world " + entry.getKey() + ":");
+                ex.printStackTrace();
+            }
+        }
     }
 
     @Override
     public boolean worldExists(String worldName) {
+        synchronized (pendingSaves) {
+            if (pendingSaves.contains(worldName)) {
+                return true;
+            }
+        }
+
         return new File(WORLD_DIR, worldName + ".slime").exists();
     }
 
+    @Override
+    public WorldStat getWorldStat(String worldName) throws UnknownWorldException, IOException {
+        // Both values are read at once, so they always belong to the same save
+        synchronized (pendingSaves) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(getWorldFile(worldName).toPath(), BasicFileAttributes.class);
+
+                return new WorldStat(attributes.size(), attributes.lastModifiedTime().toMillis());
+            } catch (NoSuchFileException ex) {
+                throw new UnknownWorldException(worldName);
+            }
+        }
+    }
+
+    @Override
+    public WorldRangeReader openWorldRanges(String worldName) throws UnknownWorldException, IOException {
+        return new ChannelRangeReader(openWorldFile(worldName));
+    }
+
+    // Saves that haven't been synced yet are still in the temporary file
+    private File getWorldFile(String worldName) {
+        synchronized (pendingSaves) {
+            return new File(WORLD_DIR, worldName + (pendingSaves.contains(worldName) ? ".slime_tmp" : ".slime"));
+        }
+    }
+
+    // The file is opened while no pending save can be moved, so the channel keeps reading the same save even if it's moved afterwards
+    private FileChannel openWorldFile(String worldName) throws UnknownWorldException, IOException {
+        synchronized (pendingSaves) {
+            try {
+                return FileChannel.open(getWorldFile(worldName).toPath(), StandardOpenOption.READ);
+            } catch (NoSuchFileException ex) {
+                throw new UnknownWorldException(worldName);
+            }
+        }
+    }
+
+    // If the world was locked by this server, the lock must still belong to it. Otherwise, another server has taken the world
+    // over, and saving it would overwrite that server's changes
+    private void checkLease(String worldName) throws IOException {
+        WorldLease lease = leases.get(worldName);
+
+        if (lease != null && !lease.isHeld()) {
+            throw new IOException("The lock of world " + worldName + " has been taken over by another server");
+        }
+    }
+
     @Override
     public void saveWorld(String worldName, byte[] serializedWorld) throws IOException {
-        File lastBackup = new File(WORLD_DIR, worldName + ".slime_old");
+        saveWorld(worldName, outputStream -> outputStream.write(serializedWorld));
+    }
 
-        if (lastBackup.exists()) {
-            lastBackup.delete();
+    // Worlds are first written to a temporary file, which is then moved over the world file, so a crash never leaves a half-written world
+    @Override
+    public void saveWorld(String worldName, WorldWriter writer) throws IOException {
+        checkLease(worldName);
+
+        // Only one save of every world can be waiting to be synced
+        syncSave(worldName);
+
+        Path tempFile = new File(WORLD_DIR, worldName + ".slime_tmp").toPath();
+
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+            writer.write(outputStream);
+            outputStream.flush();
+
+            if (syncInterval == 0) {
+                channel.force(true);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // The previous save of the world has already been synced, so the temporary file only holds this one
+            Files.deleteIfExists(tempFile);
+
+            throw ex;
+        }
+
+        if (syncInterval == 0) {
+            commitSave(worldName);
+            syncDirectory();
+        } else {
+            synchronized (pendingSaves) {
+                pendingSaves.add(worldName);
+
+                // Pending saves might have been flushed while this one was being written
+                if (syncInterval == 0) {
+                    syncSave(worldName);
+                }
+            }
+        }
+    }
+
+    // Syncs and moves the pending save of a world, if there's any. Failed saves are kept pending, so they keep failing
+    // (instead of the world file silently staying outdated) until they can be synced
+    private void syncSave(String worldName) throws IOException {
+        synchronized (pendingSaves) {
+            if (pendingSaves.contains(worldName)) {
+                checkLease(worldName);
+                forceFile(new File(WORLD_DIR, worldName + ".slime_tmp").toPath());
+                commitSave(worldName);
+                pendingSaves.remove(worldName);
+                syncDirectory();
+            }
         }
+    }
 
-        File file = new File(WORLD_DIR, worldName + ".slime");
+    // Syncs all the pending saves at once, so the file system only has to flush once for all of them
+    private void syncPendingSaves() {
+        synchronized (pendingSaves) {
+            if (pendingSaves.isEmpty()) {
+                return;
+            }
 
-        file.renameTo(lastBackup);
+            for (Iterator<String> iterator = pendingSaves.iterator(); iterator.hasNext(); ) {
+                String worldName = iterator.next();
 
-        try (FileOutputStream fileStream = new FileOutputStream(file, false)) {
-            fileStream.write(serializedWorld);
-            fileStream.flush();
-            lastBackup.delete();
+                try {
+                    checkLease(worldName);
+                    forceFile(new File(WORLD_DIR, worldName + ".slime_tmp").toPath());
+                    commitSave(worldName);
+                    iterator.remove();
+                } catch (IOException ex) {
+                    Logging.error("Failed to save world " + worldName + ", trying again later:");
+                    ex.printStackTrace();
+                }
+            }
+
+            syncDirectory();
         }
     }
 
+    private static void forceFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void commitSave(String worldName) throws IOException {
+        Path tempFile = new File(WORLD_DIR, worldName + ".slime_tmp").toPath();
+        Path worldFile = new File(WORLD_DIR, worldName + ".slime").toPath();
+        long previousModified = Files.exists(worldFile) ? Files.getLastModifiedTime(worldFile).toMillis() : Long.MIN_VALUE;
+
+        Files.move(tempFile, worldFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // Modification times might only have a resolution of one second, but they must change with every save
+        if (Files.getLastModifiedTime(worldFile).toMillis() <= previousModified) {
+            Files.setLastModifiedTime(worldFile, FileTime.fromMillis(previousModified + 1000L));
+        }
+    }
+
+    // Makes the renames durable. Not every system allows opening directories, in which case there's nothing else to do
+    private static void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(WORLD_DIR.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) { }
+    }
+
     @Override
-    public void unlockWorld(String worldName) {
+    public void unlockWorld(String worldName) throws IOException {
+        WorldLease lease = leases.get(worldName);
+
+        // Whatever hasn't been saved yet is lost, as the world belongs to another server now
+        if (lease != null && !lease.isHeld()) {
+            leases.remove(worldName);
+            lease.release();
+
+            synchronized (pendingSaves) {
+                if (pendingSaves.remove(worldName)) {
+                    Files.deleteIfExists(new File(WORLD_DIR, worldName + ".slime_tmp").toPath());
+                }
+            }
+
+            throw new IOException("The lock of world " + worldName + " has been taken over by another server");
+        }
+
+        // The last save of the world must be on disk before anyone else can use it
+        syncSave(worldName);
+        releaseLease(worldName);
+    }
+
+    private void releaseLease(String worldName) throws IOException {
+        WorldLease lease = leases.remove(worldName);
+
+        // The file can't be deleted on some systems while it's still open
+        if (lease != null) {
+            lease.release();
+        }
+
         File lockFile = new File(WORLD_DIR, worldName + ".slime_lock");
 
         lockFile.delete();
     }
 
     @Override
-    public boolean isWorldLocked(String worldName) {
-        return new File(WORLD_DIR, worldName + ".slime_lock").exists();
+    public boolean isWorldLocked(String worldName) throws IOException {
+        if (leases.containsKey(worldName)) {
+            return true;
+        }
+
+        File lockFile = new File(WORLD_DIR, worldName + ".slime_lock");
+
+        if (!lockFile.exists()) {
+            return false;
+        }
+
+        try (DataInputStream dataStream = new DataInputStream(new FileInputStream(lockFile))) {
+            return !isStale(dataStream.readLong());
+        } catch (EOFException ex) { // The lock file has just been created, and the heartbeat hasn't been written yet
+            return true;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class WorldLease {
+
+        private final File file;
+        private final FileChannel channel;
+        private final FileLock fileLock; // Null if the file system doesn't support locking
+        private final long ownerId;
+
+        // Once lost, a lease is never held again, even if the new owner unlocks the world
+        @Getter
+        private volatile boolean lost;
+
+        synchronized void write() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            buffer.putLong(0, System.currentTimeMillis());
+            buffer.putLong(8, ownerId);
+            channel.write(buffer, 0);
+            channel.force(false);
+        }
+
+        // Only refreshes the lease if it still belongs to this server, so the new owner's lease is never overwritten
+        synchronized boolean refresh() throws IOException {
+            if (!isHeld()) {
+                return false;
+            }
+
+            write();
+
+            return true;
+        }
+
+        // The file is read again instead of using the channel, as it might have been deleted and created again by another server
+        synchronized boolean isHeld() throws IOException {
+            if (!lost) {
+                try {
+                    byte[] data = Files.readAllBytes(file.toPath());
+                    lost = data.length < 16 || ByteBuffer.wrap(data).getLong(8) != ownerId;
+                } catch (NoSuchFileException ex) {
+                    lost = true;
+                }
+            }
+
+            return !lost;
+        }
+
+        synchronized void release() throws IOException {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+
+            channel.close();
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class ChannelRangeReader implements WorldRangeReader {
+
+        private final FileChannel channel;
+
+        @Override
+        public byte[] read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - position)));
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) == -1) {
+                    throw new EOFException();
+                }
+            }
+
+            return buffer.array();
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
     }
 }
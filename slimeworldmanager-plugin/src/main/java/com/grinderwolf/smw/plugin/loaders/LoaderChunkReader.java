@@ -0,0 +1,32 @@
+package com.grinderwolf.smw.plugin.loaders;
+
+import com.grinderwolf.smw.api.exceptions.CorruptedWorldException;
+import com.grinderwolf.smw.api.exceptions.NewerFormatException;
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+import com.grinderwolf.smw.api.loaders.SlimeLoader;
+import com.grinderwolf.smw.api.world.SlimeChunk;
+import com.grinderwolf.smw.nms.ChunkReader;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+// The Slime format doesn't allow reading a single chunk, so the regions containing the chunks are read again, but only the
+// requested chunks are kept
+@RequiredArgsConstructor
+public class LoaderChunkReader implements ChunkReader {
+
+    private final SlimeLoader loader;
+    private final String worldName;
+
+    @Override
+    public Map<Long, SlimeChunk> readChunks(Set<Long> chunkIndexes) throws IOException {
+        try {
+            return LoaderUtils.readChunks(loader, worldName, chunkIndexes);
+        } catch (UnknownWorldException | WorldInUseException | CorruptedWorldException | NewerFormatException ex) {
+            throw new IOException("Failed to read chunks of world " + worldName, ex);
+        }
+    }
+}
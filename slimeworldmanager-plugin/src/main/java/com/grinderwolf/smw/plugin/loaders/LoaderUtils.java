@@ -2,172 +2,195 @@ package com.grinderwolf.smw.plugin.loaders;
 
 import com.flowpowered.nbt.CompoundMap;
 import com.flowpowered.nbt.CompoundTag;
-import com.flowpowered.nbt.DoubleTag;
-import com.flowpowered.nbt.IntTag;
-import com.flowpowered.nbt.ListTag;
 import com.flowpowered.nbt.stream.NBTInputStream;
 import com.github.luben.zstd.Zstd;
 import com.grinderwolf.smw.api.exceptions.CorruptedWorldException;
 import com.grinderwolf.smw.api.exceptions.NewerFormatException;
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+import com.grinderwolf.smw.api.loaders.RangeReadLoader;
 import com.grinderwolf.smw.api.loaders.SlimeLoader;
 import com.grinderwolf.smw.api.loaders.SlimeLoaders;
+import com.grinderwolf.smw.api.loaders.WorldRangeReader;
 import com.grinderwolf.smw.api.utils.NibbleArray;
 import com.grinderwolf.smw.api.utils.SlimeFormat;
 import com.grinderwolf.smw.api.world.SlimeChunk;
 import com.grinderwolf.smw.api.world.SlimeChunkSection;
 import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.nms.BaseWorld;
+import com.grinderwolf.smw.nms.ChunkReader;
 import com.grinderwolf.smw.nms.CraftSlimeChunk;
 import com.grinderwolf.smw.nms.CraftSlimeChunkSection;
 import com.grinderwolf.smw.nms.CraftSlimeWorld;
+import com.grinderwolf.smw.nms.SectionArena;
+import com.grinderwolf.smw.nms.SectionStore;
+import com.grinderwolf.smw.plugin.log.Logging;
+import lombok.RequiredArgsConstructor;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class LoaderUtils {
 
+    // File header, version, flags and metadata length of worlds split into regions
+    private static final int REGIONS_HEADER_LENGTH = SlimeFormat.SLIME_HEADER.length + 2 + 4;
+
     public static void registerLoaders() {
         SlimeLoaders.add("file", new FileLoader());
+        SlimeLoaders.add("pack", new PackFileLoader());
+        SlimeLoaders.add("sqlite", new SQLiteLoader());
     }
 
-    public static SlimeWorld deserializeWorld(SlimeLoader loader, String worldName, byte[] serializedWorld, SlimeWorld.SlimeProperties properties) throws IOException, CorruptedWorldException, NewerFormatException {
-        DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(serializedWorld));
+    // Only worlds split into regions and stored in a loader that can read parts of them can have their chunks read again without
+    // reading the whole world
+    private static boolean canReadChunks(SlimeLoader loader, WorldHeader header) {
+        return loader instanceof RangeReadLoader && header.hasRegions();
+    }
 
-        try {
-            byte[] fileHeader = new byte[SlimeFormat.SLIME_HEADER.length];
-            dataStream.read(fileHeader);
+    // Reads the chunks from the regions that contain them. Everything is read from the same save, as the region index of another
+    // save doesn't match the regions of this one
+    static Map<Long, SlimeChunk> readChunks(SlimeLoader loader, String worldName, Set<Long> chunkIndexes)
+            throws UnknownWorldException, WorldInUseException, IOException, CorruptedWorldException, NewerFormatException {
+        if (!(loader instanceof RangeReadLoader)) {
+            throw new IOException("The loader of world " + worldName + " can't read parts of it");
+        }
 
-            if (!Arrays.equals(SlimeFormat.SLIME_HEADER, fileHeader)) {
-                throw new CorruptedWorldException(worldName);
-            }
+        Map<Long, SlimeChunk> chunks = new HashMap<>();
+        BaseReference baseReference;
 
-            // File version
-            byte version = dataStream.readByte();
+        try (WorldRangeReader rangeReader = ((RangeReadLoader) loader).openWorldRanges(worldName)) {
+            DataInputStream headerStream = new DataInputStream(new ByteArrayInputStream(rangeReader.read(0, REGIONS_HEADER_LENGTH)));
+            WorldHeader header = readHeader(worldName, headerStream);
 
-            if (version > SlimeFormat.SLIME_VERSION) {
-                throw new NewerFormatException(version);
+            if (!header.hasRegions()) {
+                throw new IOException("World " + worldName + " is not split into regions");
             }
 
-            // Chunk
-            short minX = dataStream.readShort();
-            short minZ = dataStream.readShort();
-            int width = dataStream.readShort();
-            int depth = dataStream.readShort();
-
-            int bitmaskSize = (int) Math.ceil((width * depth) / 8.0D);
-            byte[] chunkBitmask = new byte[bitmaskSize];
-            dataStream.read(chunkBitmask);
-            BitSet chunkBitset = BitSet.valueOf(chunkBitmask);
-
-            int compressedChunkDataLength = dataStream.readInt();
-            int chunkDataLength = dataStream.readInt();
-            byte[] compressedChunkData = new byte[compressedChunkDataLength];
-            byte[] chunkData = new byte[chunkDataLength];
-
-            dataStream.read(compressedChunkData);
+            int metadataLength = headerStream.readInt();
+            RegionMetadata regionMetadata = readRegionMetadata(worldName, header, rangeReader, metadataLength);
 
-            // Tile Entities
-            int compressedTileEntitiesLength = dataStream.readInt();
-            int tileEntitiesLength = dataStream.readInt();
-            byte[] compressedTileEntities = new byte[compressedTileEntitiesLength];
-            byte[] tileEntities = new byte[tileEntitiesLength];
-
-            dataStream.read(compressedTileEntities);
-
-            // Entities
-            byte[] compressedEntities = new byte[0];
-            byte[] entities = new byte[0];
+            FrameReader frameReader = new FrameReader(worldName, header, chunkIndexes, null, false);
+            long position = REGIONS_HEADER_LENGTH + metadataLength;
 
-            if (version >= 3) {
-                boolean hasEntities = dataStream.readBoolean();
+            for (Region region : regionMetadata.regions) {
+                if (region.containsAny(chunkIndexes)) {
+                    byte[] regionFrame = rangeReader.read(position, region.length);
+                    DataInputStream regionStream = new DataInputStream(new ByteArrayInputStream(regionFrame));
 
-                if (hasEntities) {
-                    int compressedEntitiesLength = dataStream.readInt();
-                    int entitiesLength = dataStream.readInt();
-                    compressedEntities = new byte[compressedEntitiesLength];
-                    entities = new byte[entitiesLength];
-
-                    dataStream.read(compressedEntities);
+                    frameReader.read(regionStream, region.getMinX(), region.getMinZ(), SlimeFormat.REGION_SIZE, SlimeFormat.REGION_SIZE, chunks);
                 }
-            }
 
-            // Extra NBT tag
-            byte[] compressedExtraTag = new byte[0];
-            byte[] extraTag = new byte[0];
+                position += region.length;
+            }
 
-            if (version >= 2) {
-                int compressedExtraTagLength = dataStream.readInt();
-                int extraTagLength = dataStream.readInt();
-                compressedExtraTag = new byte[compressedExtraTagLength];
-                extraTag = new byte[extraTagLength];
+            baseReference = regionMetadata.baseReference;
+        } catch (EOFException ex) {
+            throw new CorruptedWorldException(worldName);
+        }
 
-                dataStream.read(compressedExtraTag);
-            }
+        addBaseChunks(loader, worldName, chunkIndexes, baseReference, chunks);
 
-            if (dataStream.read() != -1) {
-                throw new CorruptedWorldException(worldName);
-            }
+        return chunks;
+    }
 
-            // Data decompression
-            Zstd.decompress(chunkData, compressedChunkData);
-            Zstd.decompress(tileEntities, compressedTileEntities);
-            Zstd.decompress(entities, compressedEntities);
-            Zstd.decompress(extraTag, compressedExtraTag);
+    public static SlimeWorld deserializeWorld(SlimeLoader loader, String worldName, byte[] serializedWorld, SlimeWorld.SlimeProperties properties) throws IOException, CorruptedWorldException, NewerFormatException {
+        return deserializeWorld(loader, worldName, new ArrayRangeReader(serializedWorld), properties);
+    }
 
-            // Chunk deserialization
-            Map<Long, SlimeChunk> chunks = readChunks(worldName, minX, minZ, width, depth, chunkBitset, chunkData);
+    // Worlds split into regions are read one region at a time, so they don't have to fit in a single array
+    public static SlimeWorld deserializeWorld(SlimeLoader loader, String worldName, WorldRangeReader rangeReader, SlimeWorld.SlimeProperties properties)
+            throws IOException, CorruptedWorldException, NewerFormatException {
+        long worldSize = rangeReader.size();
+        byte[] headerData = rangeReader.read(0, (int) Math.min(worldSize, REGIONS_HEADER_LENGTH));
+        DataInputStream headerStream = new DataInputStream(new ByteArrayInputStream(headerData));
 
-            // Entity deserialization
-            CompoundTag entitiesCompound = readCompoundTag(entities);
+        try {
+            WorldHeader header = readHeader(worldName, headerStream);
 
-            if (entitiesCompound != null) {
-                ListTag<CompoundTag> tileEntitiesList = (ListTag<CompoundTag>) entitiesCompound.getValue().get("entities");
+            SectionArena sectionArena = properties.isOffHeapStorage() ? new SectionArena() : null;
+            boolean slabAllocation = sectionArena == null && properties.isSlabAllocation();
+            FrameReader frameReader = new FrameReader(worldName, header, null, sectionArena, slabAllocation);
 
-                for (CompoundTag entityCompound : tileEntitiesList.getValue()) {
-                    CompoundMap map = entityCompound.getValue();
-                    ListTag<DoubleTag> listTag = (ListTag<DoubleTag>) map.get("Pos");
+            Map<Long, SlimeChunk> chunks = new HashMap<>();
+            BaseReference baseReference;
+            byte[] extraTag;
 
-                    int chunkX = floor(listTag.getValue().get(0).getValue()) >> 4;
-                    int chunkZ = floor(listTag.getValue().get(2).getValue()) >> 4;
-                    long chunkKey = ((long) chunkZ) * Integer.MAX_VALUE + ((long) chunkX);
-                    SlimeChunk chunk = chunks.get(chunkKey);
+            if (header.hasRegions()) {
+                int metadataLength = headerStream.readInt();
+                RegionMetadata regionMetadata = readRegionMetadata(worldName, header, rangeReader, metadataLength);
+                long position = REGIONS_HEADER_LENGTH + metadataLength;
 
-                    if (chunk == null) {
+                for (Region region : regionMetadata.regions) {
+                    if (position + region.length > worldSize) {
                         throw new CorruptedWorldException(worldName);
                     }
 
-                    chunk.getEntities().add(entityCompound);
+                    DataInputStream regionStream = new DataInputStream(new ByteArrayInputStream(rangeReader.read(position, region.length)));
+                    frameReader.read(regionStream, region.getMinX(), region.getMinZ(), SlimeFormat.REGION_SIZE, SlimeFormat.REGION_SIZE, chunks);
+                    position += region.length;
                 }
-            }
 
-            // Tile Entity deserialization
-            CompoundTag tileEntitiesCompound = readCompoundTag(tileEntities);
+                if (position != worldSize) {
+                    throw new CorruptedWorldException(worldName);
+                }
 
-            if (tileEntitiesCompound != null) {
-                ListTag<CompoundTag> tileEntitiesList = (ListTag<CompoundTag>) tileEntitiesCompound.getValue().get("tiles");
+                baseReference = regionMetadata.baseReference;
+                extraTag = regionMetadata.extraTag;
+            } else {
+                // Worlds that are a single chunk frame are read all at once. Worlds that big are always split into regions
+                if (worldSize > Integer.MAX_VALUE) {
+                    throw new CorruptedWorldException(worldName);
+                }
 
-                for (CompoundTag tileEntityCompound : tileEntitiesList.getValue()) {
-                    int chunkX = ((IntTag) tileEntityCompound.getValue().get("x")).getValue() >> 4;
-                    int chunkZ = ((IntTag) tileEntityCompound.getValue().get("z")).getValue() >> 4;
-                    long chunkKey = ((long) chunkZ) * Integer.MAX_VALUE + ((long) chunkX);
-                    SlimeChunk chunk = chunks.get(chunkKey);
+                DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(rangeReader.read(0, (int) worldSize)));
+                readHeader(worldName, dataStream);
 
+                baseReference = header.hasBaseWorld() ? readBaseReference(worldName, dataStream) : null;
 
-                    if (chunk == null) {
-                        throw new CorruptedWorldException(worldName);
-                    }
+                // Chunk
+                short minX = dataStream.readShort();
+                short minZ = dataStream.readShort();
+                int width = dataStream.readShort();
+                int depth = dataStream.readShort();
 
-                    chunk.getTileEntities().add(tileEntityCompound);
+                frameReader.read(dataStream, minX, minZ, width, depth, chunks);
+
+                // Extra NBT tag
+                extraTag = header.version >= 2 ? readCompressed(dataStream) : new byte[0];
+
+                if (dataStream.read() != -1) {
+                    throw new CorruptedWorldException(worldName);
                 }
             }
 
+            Set<Long> ownChunks = new HashSet<>(chunks.keySet());
+            BaseWorldCache.CachedBaseWorld referencedBaseWorld = addBaseChunks(loader, worldName, null, baseReference, chunks);
+
+            // The world is saved as differences from the base world set in its properties, if there's any. If that's the base world
+            // it was saved with, it's already known which chunks are the same as in the base world
+            BaseWorld baseWorld = null;
+            Set<Long> baseChunkIndexes = null;
+
+            if (referencedBaseWorld != null && referencedBaseWorld.getBaseWorld().getName().equals(properties.getBaseWorld())) {
+                baseWorld = referencedBaseWorld.getBaseWorld();
+                baseChunkIndexes = new HashSet<>(chunks.keySet());
+                baseChunkIndexes.removeAll(ownChunks);
+            } else if (properties.getBaseWorld() != null) {
+                baseWorld = BaseWorldCache.get(loader, properties.getBaseWorld(), null).getBaseWorld();
+            }
+
             // Extra Data
             CompoundTag extraCompound = readCompoundTag(extraTag);
 
@@ -175,18 +198,164 @@ public class LoaderUtils {
                 extraCompound = new CompoundTag("", new CompoundMap());
             }
 
-            return new CraftSlimeWorld(loader, worldName, chunks, extraCompound, properties);
+            // Chunks can only be dropped from memory if they can be read again later on, without reading the whole world
+            ChunkReader chunkReader = null;
+
+            if (properties.getMemoryLimit() > 0) {
+                if (canReadChunks(loader, header)) {
+                    chunkReader = new LoaderChunkReader(loader, worldName);
+                } else {
+                    Logging.warning("Ignoring the memory limit of world " + worldName + ", as it's not split into regions or its loader can't read parts of it. "
+                            + "Worlds with regionFormat enabled are split into regions the next time they're saved.");
+                }
+            }
+
+            return new CraftSlimeWorld(loader, worldName, chunks, extraCompound, sectionArena, chunkReader, baseWorld, baseChunkIndexes, properties);
         } catch (EOFException ex) {
             throw new CorruptedWorldException(worldName);
         }
     }
 
-    private static int floor(double num) {
-        final int floor = (int) num;
-        return floor == num ? floor : floor - (int) (Double.doubleToRawLongBits(num) >>> 63);
+    private static WorldHeader readHeader(String worldName, DataInputStream dataStream) throws IOException, CorruptedWorldException, NewerFormatException {
+        byte[] fileHeader = new byte[SlimeFormat.SLIME_HEADER.length];
+        dataStream.readFully(fileHeader);
+
+        if (!Arrays.equals(SlimeFormat.SLIME_HEADER, fileHeader)) {
+            throw new CorruptedWorldException(worldName);
+        }
+
+        // File version
+        byte version = dataStream.readByte();
+
+        if (version > SlimeFormat.SLIME_FLAGS_VERSION) {
+            throw new NewerFormatException(version);
+        }
+
+        byte flags = version >= SlimeFormat.SLIME_FLAGS_VERSION ? dataStream.readByte() : 0;
+
+        if ((flags & ~SlimeFormat.KNOWN_FLAGS) != 0) {
+            throw new NewerFormatException(version);
+        }
+
+        return new WorldHeader(version, flags);
+    }
+
+    private static BaseReference readBaseReference(String worldName, DataInputStream dataStream) throws IOException, CorruptedWorldException {
+        String baseWorldName = dataStream.readUTF();
+        byte[] baseWorldHash = new byte[BaseWorld.HASH_LENGTH];
+        dataStream.readFully(baseWorldHash);
+
+        Set<Long> removedChunks = new HashSet<>();
+        int removedChunkCount = dataStream.readInt();
+
+        for (int i = 0; i < removedChunkCount; i++) {
+            removedChunks.add(dataStream.readLong());
+        }
+
+        if (baseWorldName.equals(worldName)) {
+            throw new CorruptedWorldException(worldName);
+        }
+
+        return new BaseReference(baseWorldName, baseWorldHash, removedChunks);
+    }
+
+    // The metadata of a world split into regions comes right after the header, and the regions right after it
+    private static RegionMetadata readRegionMetadata(String worldName, WorldHeader header, WorldRangeReader rangeReader, int metadataLength)
+            throws IOException, CorruptedWorldException {
+        if (metadataLength < 0) {
+            throw new CorruptedWorldException(worldName);
+        }
+
+        byte[] metadata = rangeReader.read(REGIONS_HEADER_LENGTH, metadataLength);
+        DataInputStream metadataStream = new DataInputStream(new ByteArrayInputStream(metadata));
+        RegionMetadata regionMetadata = readRegionMetadata(worldName, header, metadataStream);
+
+        if (metadata.length != metadataLength || metadataStream.available() != 0) {
+            throw new CorruptedWorldException(worldName);
+        }
+
+        return regionMetadata;
+    }
+
+    private static RegionMetadata readRegionMetadata(String worldName, WorldHeader header, DataInputStream dataStream) throws IOException,
+            CorruptedWorldException {
+        BaseReference baseReference = header.hasBaseWorld() ? readBaseReference(worldName, dataStream) : null;
+
+        int regionCount = dataStream.readInt();
+        List<Region> regions = new ArrayList<>();
+
+        for (int i = 0; i < regionCount; i++) {
+            int regionX = dataStream.readInt();
+            int regionZ = dataStream.readInt();
+            int length = dataStream.readInt();
+
+            if (length < 0) {
+                throw new CorruptedWorldException(worldName);
+            }
+
+            regions.add(new Region(regionX, regionZ, length));
+        }
+
+        // Extra NBT tag
+        byte[] extraTag = readCompressed(dataStream);
+
+        return new RegionMetadata(baseReference, regions, extraTag);
+    }
+
+    private static byte[] readCompressed(DataInputStream dataStream) throws IOException {
+        int compressedLength = dataStream.readInt();
+        int length = dataStream.readInt();
+        byte[] compressedData = new byte[compressedLength];
+        byte[] data = new byte[length];
+
+        dataStream.readFully(compressedData);
+        Zstd.decompress(data, compressedData);
+
+        return data;
+    }
+
+    // Chunks that are the same as in the base world are taken from it. Only the provided chunks are added, or all of them if none
+    // are provided. Returns the base world the chunks were taken from, if there's any
+    private static BaseWorldCache.CachedBaseWorld addBaseChunks(SlimeLoader loader, String worldName, Set<Long> chunkIndexes, BaseReference baseReference,
+                                                                Map<Long, SlimeChunk> chunks) throws IOException, CorruptedWorldException, NewerFormatException {
+        if (baseReference == null) {
+            return null;
+        }
+
+        BaseWorldCache.CachedBaseWorld baseWorld = BaseWorldCache.get(loader, baseReference.name, baseReference.hash);
+
+        if (!Arrays.equals(baseReference.hash, baseWorld.getBaseWorld().getHash())) {
+            throw new IOException("Base world " + baseReference.name + " has changed since world " + worldName + " was saved");
+        }
+
+        for (Long index : chunkIndexes != null ? chunkIndexes : baseWorld.getChunks().keySet()) {
+            SlimeChunk chunk = baseWorld.getChunks().get(index);
+
+            if (chunk == null || baseReference.removedChunks.contains(index) || chunks.containsKey(index)) {
+                continue;
+            }
+
+            // The block data is shared with the cached base world, but every world gets its own entity lists
+            chunks.put(index, new CraftSlimeChunk(worldName, chunk.getX(), chunk.getZ(), chunk.getSections(), chunk.getHeightMap(),
+                    chunk.getBiomes(), new ArrayList<>(chunk.getTileEntities()), new ArrayList<>(chunk.getEntities())));
+        }
+
+        return baseWorld;
+    }
+
+    private static SlimeChunk getChunk(Map<Long, SlimeChunk> chunks, int chunkX, int chunkZ, boolean partial) {
+        SlimeChunk chunk = chunks.get(((long) chunkZ) * Integer.MAX_VALUE + ((long) chunkX));
+
+        if (chunk == null && !partial) {
+            throw new IllegalArgumentException("chunk (" + chunkX + ", " + chunkZ + ") does not exist");
+        }
+
+        return chunk;
     }
 
-    private static Map<Long, SlimeChunk> readChunks(String worldName, int minX, int minZ, int width, int depth, BitSet chunkBitset, byte[] chunkData) throws IOException {
+    private static Map<Long, SlimeChunk> readChunks(String worldName, int minX, int minZ, int width, int depth, BitSet chunkBitset, byte[] chunkData,
+                                                Set<Long> chunkIndexes, boolean sharedSections, SectionArena sectionArena,
+                                                NibbleSlab nibbleSlab) throws IOException {
         DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(chunkData));
         Map<Long, SlimeChunk> chunkMap = new HashMap<>();
 
@@ -194,7 +363,11 @@ public class LoaderUtils {
             for (int x = 0; x < width; x++) {
                 int bitsetIndex = z * width + x;
 
-                if (chunkBitset.get(bitsetIndex)) {
+                long chunkIndex = ((long) minZ + z) * Integer.MAX_VALUE + ((long) minX + x);
+
+                if (chunkBitset.get(bitsetIndex) && chunkIndexes != null && !chunkIndexes.contains(chunkIndex)) {
+                    skipChunk(dataStream, sharedSections);
+                } else if (chunkBitset.get(bitsetIndex)) {
                     // HeightMap
                     int[] heightMap = new int[256];
 
@@ -207,9 +380,9 @@ public class LoaderUtils {
                     dataStream.read(biomes);
 
                     // Chunk Sections
-                    SlimeChunkSection[] sections = readChunkSections(dataStream);
+                    SlimeChunkSection[] sections = readChunkSections(dataStream, sharedSections, sectionArena, nibbleSlab);
 
-                    chunkMap.put(((long) minZ + z) * Integer.MAX_VALUE + ((long) minX + x), new CraftSlimeChunk(worldName,minX + x, minZ + z,
+                    chunkMap.put(chunkIndex, new CraftSlimeChunk(worldName,minX + x, minZ + z,
                             sections, heightMap, biomes, new ArrayList<>(), new ArrayList<>()));
                 }
             }
@@ -218,14 +391,62 @@ public class LoaderUtils {
         return chunkMap;
     }
 
-    private static SlimeChunkSection[] readChunkSections(DataInputStream dataStream) throws IOException {
+    private static void skipChunk(DataInputStream dataStream, boolean sharedSections) throws IOException {
+        dataStream.skipBytes(256 * 4 + 256); // HeightMap and biome array
+
+        byte[] sectionBitmask = new byte[2];
+        dataStream.readFully(sectionBitmask);
+        BitSet sectionBitset = BitSet.valueOf(sectionBitmask);
+
+        for (int i = 0; i < 16; i++) {
+            if (sectionBitset.get(i) && sharedSections) {
+                dataStream.skipBytes(SectionStore.HASH_LENGTH);
+            } else if (sectionBitset.get(i)) {
+                dataStream.skipBytes(SectionArena.SECTION_SIZE);
+                dataStream.skipBytes(dataStream.readShort()); // HypixelBlocks 3
+            }
+        }
+    }
+
+    private static SlimeChunkSection[] readChunkSections(DataInputStream dataStream, boolean sharedSections, SectionArena sectionArena,
+                                                         NibbleSlab nibbleSlab) throws IOException {
         SlimeChunkSection[] chunkSectionArray = new SlimeChunkSection[16];
         byte[] sectionBitmask = new byte[2];
         dataStream.read(sectionBitmask);
         BitSet sectionBitset = BitSet.valueOf(sectionBitmask);
+        byte[] sectionData = sectionArena != null ? new byte[SectionArena.SECTION_SIZE] : null;
 
         for (int i = 0; i < 16; i++) {
-            if (sectionBitset.get(i)) {
+            if (sectionBitset.get(i) && sharedSections) {
+                // Shared with every other loaded world using the same section
+                byte[] hash = new byte[SectionStore.HASH_LENGTH];
+                dataStream.readFully(hash);
+
+                chunkSectionArray[i] = SectionStore.load(hash);
+            } else if (sectionBitset.get(i) && sectionArena != null) {
+                // Same layout as the arena, so it can be copied as it is
+                dataStream.readFully(sectionData);
+
+                // HypixelBlocks 3
+                short hypixelBlocksLength = dataStream.readShort();
+                dataStream.skip(hypixelBlocksLength);
+
+                chunkSectionArray[i] = sectionArena.store(sectionData);
+            } else if (sectionBitset.get(i) && nibbleSlab != null) {
+                NibbleArray blockLightArray = nibbleSlab.read(dataStream);
+
+                byte[] blockArray = new byte[4096];
+                dataStream.readFully(blockArray);
+
+                NibbleArray dataArray = nibbleSlab.read(dataStream);
+                NibbleArray skyLightArray = nibbleSlab.read(dataStream);
+
+                // HypixelBlocks 3
+                short hypixelBlocksLength = dataStream.readShort();
+                dataStream.skip(hypixelBlocksLength);
+
+                chunkSectionArray[i] = new CraftSlimeChunkSection(blockArray, dataArray, blockLightArray, skyLightArray);
+            } else if (sectionBitset.get(i)) {
                 // Block Light Nibble Array
                 byte[] blockLightByteArray = new byte[2048];
                 dataStream.read(blockLightByteArray);
@@ -256,6 +477,179 @@ public class LoaderUtils {
         return chunkSectionArray;
     }
 
+    @RequiredArgsConstructor
+    private static class WorldHeader {
+
+        private final byte version;
+        private final byte flags;
+
+        private boolean hasBaseWorld() {
+            return (flags & SlimeFormat.FLAG_OVERLAY) != 0;
+        }
+
+        private boolean hasRegions() {
+            return (flags & SlimeFormat.FLAG_REGIONS) != 0;
+        }
+    }
+
+    // World a world is saved as differences from
+    @RequiredArgsConstructor
+    private static class BaseReference {
+
+        private final String name;
+        private final byte[] hash;
+        private final Set<Long> removedChunks;
+    }
+
+    @RequiredArgsConstructor
+    private static class RegionMetadata {
+
+        private final BaseReference baseReference;
+        private final List<Region> regions;
+        private final byte[] extraTag;
+    }
+
+    @RequiredArgsConstructor
+    private static class Region {
+
+        private final int regionX;
+        private final int regionZ;
+        private final int length;
+
+        private int getMinX() {
+            return regionX * SlimeFormat.REGION_SIZE;
+        }
+
+        private int getMinZ() {
+            return regionZ * SlimeFormat.REGION_SIZE;
+        }
+
+        private boolean containsAny(Set<Long> chunkIndexes) {
+            for (int z = getMinZ(); z < getMinZ() + SlimeFormat.REGION_SIZE; z++) {
+                for (int x = getMinX(); x < getMinX() + SlimeFormat.REGION_SIZE; x++) {
+                    if (chunkIndexes.contains(((long) z) * Integer.MAX_VALUE + ((long) x))) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+
+    // Reads the chunk bitmask, chunks, tile entities and entities of a chunk frame. Worlds are either a single frame, or a frame per region
+    @RequiredArgsConstructor
+    private static class FrameReader {
+
+        private final String worldName;
+        private final WorldHeader header;
+        private final Set<Long> chunkIndexes;
+        private final SectionArena sectionArena;
+        private final boolean slabAllocation;
+
+        private void read(DataInputStream dataStream, int minX, int minZ, int width, int depth, Map<Long, SlimeChunk> chunks) throws IOException,
+                CorruptedWorldException {
+            boolean sharedSections = (header.flags & SlimeFormat.FLAG_SHARED_SECTIONS) != 0;
+            boolean partial = chunkIndexes != null;
+
+            int bitmaskSize = (int) Math.ceil((width * depth) / 8.0D);
+            byte[] chunkBitmask = new byte[bitmaskSize];
+            dataStream.readFully(chunkBitmask);
+            BitSet chunkBitset = BitSet.valueOf(chunkBitmask);
+
+            byte[] chunkData = readCompressed(dataStream);
+
+            // Tile Entities
+            byte[] tileEntities = readCompressed(dataStream);
+
+            // Entities
+            byte[] entities = header.version >= 3 && dataStream.readBoolean() ? readCompressed(dataStream) : new byte[0];
+
+            // Chunk deserialization
+            NibbleSlab nibbleSlab = slabAllocation && !sharedSections ? new NibbleSlab(chunkData.length) : null;
+            Map<Long, SlimeChunk> frameChunks = readChunks(worldName, minX, minZ, width, depth, chunkBitset, chunkData, chunkIndexes, sharedSections,
+                    sectionArena, nibbleSlab);
+
+            // Entity and Tile Entity deserialization. These are kept serialized until they're needed
+            try {
+                new RawCompoundListReader(entities).read("entities", (tag, chunkX, chunkZ) -> {
+                    SlimeChunk chunk = getChunk(frameChunks, chunkX, chunkZ, partial);
+
+                    if (chunk != null) {
+                        chunk.getEntities().add(tag);
+                    }
+                });
+                new RawCompoundListReader(tileEntities).read("tiles", (tag, chunkX, chunkZ) -> {
+                    SlimeChunk chunk = getChunk(frameChunks, chunkX, chunkZ, partial);
+
+                    if (chunk != null) {
+                        chunk.getTileEntities().add(tag);
+                    }
+                });
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException ex) {
+                throw new CorruptedWorldException(worldName);
+            }
+
+            chunks.putAll(frameChunks);
+        }
+    }
+
+    // Serialized world that has already been read
+    @RequiredArgsConstructor
+    private static class ArrayRangeReader implements WorldRangeReader {
+
+        private final byte[] serializedWorld;
+
+        @Override
+        public byte[] read(long position, int length) {
+            int start = (int) Math.min(position, serializedWorld.length);
+            int end = (int) Math.min(start + (long) Math.max(length, 0), serializedWorld.length);
+
+            // The whole world doesn't have to be copied
+            if (start == 0 && end == serializedWorld.length) {
+                return serializedWorld;
+            }
+
+            return Arrays.copyOfRange(serializedWorld, start, end);
+        }
+
+        @Override
+        public long size() {
+            return serializedWorld.length;
+        }
+
+        @Override
+        public void close() { }
+    }
+
+    // Shared backing array for all the nibble arrays of a world
+    private static class NibbleSlab {
+
+        private static final int NIBBLE_ARRAY_SIZE = 2048;
+
+        private byte[] data;
+        private int position;
+
+        private NibbleSlab(int chunkDataLength) {
+            // Every section takes at least this much space, so the slab is never too small
+            int maxSections = chunkDataLength / (SectionArena.SECTION_SIZE + 2);
+            this.data = new byte[maxSections * 3 * NIBBLE_ARRAY_SIZE];
+        }
+
+        private NibbleArray read(DataInputStream dataStream) throws IOException {
+            if (position + NIBBLE_ARRAY_SIZE > data.length) { // Should never happen, but just in case
+                data = new byte[NIBBLE_ARRAY_SIZE * 48];
+                position = 0;
+            }
+
+            dataStream.readFully(data, position, NIBBLE_ARRAY_SIZE);
+            NibbleArray array = new NibbleArray(data, position, NIBBLE_ARRAY_SIZE * 2);
+            position += NIBBLE_ARRAY_SIZE;
+
+            return array;
+        }
+    }
+
     private static CompoundTag readCompoundTag(byte[] serializedCompound) throws IOException {
         if (serializedCompound.length == 0) {
             return null;
@@ -0,0 +1,464 @@
+package com.grinderwolf.smw.plugin.loaders;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+import com.grinderwolf.smw.api.loaders.TimestampedLoader;
+import com.grinderwolf.smw.plugin.log.Logging;
+import lombok.RequiredArgsConstructor;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Stores lots of worlds in a few big segment files instead of using one file per world. Saves are always appended to the
+// last segment, and segments mostly taken by outdated copies of worlds are compacted in the background. The pack directory
+// can only be used by one server at a time, so world locks are just kept in memory
+public class PackFileLoader implements TimestampedLoader {
+
+    private static final File PACK_DIR = new File("slime_packs");
+    private static final int RECORD_MAGIC = 0x534C4D50;
+    private static final long MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    // Segments are compacted once less than this fraction of them is used by the latest copy of the worlds
+    private static final double COMPACTION_THRESHOLD = 0.5D;
+    private static final long COMPACTION_INTERVAL = 5L; // Minutes
+    private static final ScheduledExecutorService COMPACTION_SERVICE = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("SMW Pack Compactor").setDaemon(true).build());
+
+    // The index and the segment list are guarded by this lock. Segments can't be deleted while being read
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final Map<String, RecordLocation> index = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+    // Appending to the active segment (and adding the new record to the index) is guarded by this lock
+    private final Object appendLock = new Object();
+    private Segment activeSegment;
+
+    private final Set<String> lockedWorlds = ConcurrentHashMap.newKeySet();
+    private FileLock directoryLock;
+
+    // The pack directory is opened the first time it's needed, so servers that don't use this loader never lock it
+    private synchronized void open() throws IOException {
+        if (directoryLock != null) {
+            return;
+        }
+
+        PACK_DIR.mkdirs();
+        FileChannel lockChannel = FileChannel.open(new File(PACK_DIR, "pack.lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock();
+
+        if (lock == null) {
+            lockChannel.close();
+
+            throw new IOException("The pack directory is being used by another server");
+        }
+
+        long start = System.currentTimeMillis();
+        File[] segmentFiles = PACK_DIR.listFiles((dir, name) -> name.startsWith("segment_") && name.endsWith(".pack"));
+
+        if (segmentFiles != null) {
+            for (File segmentFile : segmentFiles) {
+                int id = Integer.parseInt(segmentFile.getName().substring(8, segmentFile.getName().length() - 5));
+                segments.put(id, new Segment(id, FileChannel.open(segmentFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)));
+            }
+        }
+
+        // Segments are scanned in the order they were written, so newer copies of the worlds replace the older ones
+        for (Segment segment : segments.values()) {
+            scanSegment(segment);
+        }
+
+        if (segments.isEmpty()) {
+            activeSegment = createSegment(0);
+        } else {
+            activeSegment = segments.lastEntry().getValue();
+        }
+
+        directoryLock = lock;
+        COMPACTION_SERVICE.scheduleWithFixedDelay(this::compact, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.MINUTES);
+
+        Logging.info("Indexed " + index.size() + " packed worlds in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        File segmentFile = new File(PACK_DIR, "segment_" + id + ".pack");
+        Segment segment = new Segment(id, FileChannel.open(segmentFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(id, segment);
+
+        return segment;
+    }
+
+    // Record layout: magic (int), world name (UTF-8 string prefixed by its length as a short), data length (int), data CRC32 (int), data
+    private void scanSegment(Segment segment) throws IOException {
+        long size = segment.channel.size();
+        long position = 0;
+        RecordLocation lastRecord = null;
+        RecordLocation replacedRecord = null;
+
+        while (position < size) {
+            RecordLocation location;
+
+            try {
+                location = readRecordHeader(segment, position);
+            } catch (EOFException ex) {
+                location = null;
+            }
+
+            if (location == null || location.dataOffset + location.dataLength > size) {
+                Logging.warning("Segment " + segment.id + " of the pack directory ends with an incomplete world. Truncating it.");
+                segment.channel.truncate(position);
+                break;
+            }
+
+            RecordLocation oldLocation = index.put(location.worldName, location);
+            segment.liveBytes += location.recordLength;
+
+            if (oldLocation != null) {
+                segments.get(oldLocation.segmentId).liveBytes -= oldLocation.recordLength;
+            }
+
+            lastRecord = location;
+            replacedRecord = oldLocation;
+            position += location.recordLength;
+        }
+
+        segment.size = position;
+
+        // The server might have crashed while the last world was being written
+        if (lastRecord != null && !isIntact(lastRecord, readData(lastRecord))) {
+            Logging.warning("World " + lastRecord.worldName + " was not completely written to segment " + segment.id
+                    + " of the pack directory. Using its previous copy, if any.");
+            segment.liveBytes -= lastRecord.recordLength;
+
+            if (replacedRecord != null) {
+                index.put(replacedRecord.worldName, replacedRecord);
+                segments.get(replacedRecord.segmentId).liveBytes += replacedRecord.recordLength;
+            } else {
+                index.remove(lastRecord.worldName);
+            }
+
+            segment.channel.truncate(lastRecord.recordOffset);
+            segment.size = lastRecord.recordOffset;
+        }
+    }
+
+    private RecordLocation readRecordHeader(Segment segment, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(6);
+        readFully(segment.channel, buffer, position);
+
+        if (buffer.getInt(0) != RECORD_MAGIC) {
+            return null;
+        }
+
+        byte[] nameBytes = new byte[buffer.getShort(4) & 0xFFFF];
+        readFully(segment.channel, ByteBuffer.wrap(nameBytes), position + 6);
+
+        buffer = ByteBuffer.allocate(8);
+        readFully(segment.channel, buffer, position + 6 + nameBytes.length);
+
+        long dataOffset = position + 6 + nameBytes.length + 8;
+        int dataLength = buffer.getInt(0);
+
+        return new RecordLocation(new String(nameBytes, StandardCharsets.UTF_8), segment.id, position, dataOffset - position + dataLength,
+                dataOffset, dataLength, buffer.getInt(4));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    // Must be called while holding the index read lock, so the segment doesn't get deleted
+    private byte[] readData(RecordLocation location) throws IOException {
+        byte[] data = new byte[location.dataLength];
+        readFully(segments.get(location.segmentId).channel, ByteBuffer.wrap(data), location.dataOffset);
+
+        return data;
+    }
+
+    private static boolean isIntact(RecordLocation location, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        return (int) crc.getValue() == location.crc;
+    }
+
+    @Override
+    public byte[] loadWorld(String worldName, boolean readOnly) throws UnknownWorldException, WorldInUseException, IOException {
+        open();
+
+        if (!worldExists(worldName)) {
+            throw new UnknownWorldException(worldName);
+        }
+
+        if (!readOnly && !lockedWorlds.add(worldName)) {
+            throw new WorldInUseException(worldName);
+        }
+
+        try {
+            indexLock.readLock().lock();
+
+            try {
+                RecordLocation location = index.get(worldName);
+                byte[] data = readData(location);
+
+                if (!isIntact(location, data)) {
+                    throw new IOException("World " + worldName + " is corrupted in segment " + location.segmentId + " of the pack directory");
+                }
+
+                return data;
+            } finally {
+                indexLock.readLock().unlock();
+            }
+        } catch (IOException ex) {
+            if (!readOnly) {
+                lockedWorlds.remove(worldName);
+            }
+
+            throw ex;
+        }
+    }
+
+    @Override
+    public boolean worldExists(String worldName) {
+        try {
+            open();
+        } catch (IOException ex) {
+            Logging.error("Failed to open the pack directory:");
+            ex.printStackTrace();
+
+            return false;
+        }
+
+        indexLock.readLock().lock();
+
+        try {
+            return index.containsKey(worldName);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    // Records are only ever appended, so the position of the latest copy of a world grows with every save
+    @Override
+    public long getLastModified(String worldName) throws UnknownWorldException, IOException {
+        open();
+        indexLock.readLock().lock();
+
+        try {
+            RecordLocation location = index.get(worldName);
+
+            if (location == null) {
+                throw new UnknownWorldException(worldName);
+            }
+
+            return location.segmentId * MAX_SEGMENT_SIZE + location.recordOffset;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveWorld(String worldName, byte[] serializedWorld) throws IOException {
+        open();
+
+        // The index is updated before anything else is appended, so the order of the records always matches the index
+        synchronized (appendLock) {
+            updateIndex(append(worldName, serializedWorld));
+        }
+    }
+
+    private void updateIndex(RecordLocation location) {
+        indexLock.writeLock().lock();
+
+        try {
+            RecordLocation oldLocation = index.put(location.worldName, location);
+            segments.get(location.segmentId).liveBytes += location.recordLength;
+
+            if (oldLocation != null) {
+                segments.get(oldLocation.segmentId).liveBytes -= oldLocation.recordLength;
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    // Must be called while holding the append lock
+    private RecordLocation append(String worldName, byte[] data) throws IOException {
+        byte[] nameBytes = worldName.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteBuffer header = ByteBuffer.allocate(6 + nameBytes.length + 8);
+        header.putInt(RECORD_MAGIC);
+        header.putShort((short) nameBytes.length);
+        header.put(nameBytes);
+        header.putInt(data.length);
+        header.putInt((int) crc.getValue());
+        header.flip();
+
+        long recordLength = header.remaining() + data.length;
+
+        if (activeSegment.size > 0 && activeSegment.size + recordLength > MAX_SEGMENT_SIZE) {
+            indexLock.writeLock().lock();
+
+            try {
+                activeSegment = createSegment(activeSegment.id + 1);
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        }
+
+        Segment segment = activeSegment;
+        long position = segment.size;
+        ByteBuffer[] buffers = { header, ByteBuffer.wrap(data) };
+        segment.channel.position(position);
+
+        while (buffers[1].hasRemaining()) {
+            segment.channel.write(buffers);
+        }
+
+        segment.channel.force(false);
+        segment.size += recordLength;
+
+        return new RecordLocation(worldName, segment.id, position, recordLength, position + 6 + nameBytes.length + 8,
+                data.length, (int) crc.getValue());
+    }
+
+    // Moves the worlds stored in mostly outdated segments to the active one, and then deletes those segments
+    private void compact() {
+        List<Segment> candidates = new ArrayList<>();
+        indexLock.readLock().lock();
+
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment != activeSegment && segment.liveBytes < segment.size * COMPACTION_THRESHOLD) {
+                    candidates.add(segment);
+                }
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+
+        for (Segment segment : candidates) {
+            try {
+                compactSegment(segment);
+            } catch (IOException ex) {
+                Logging.error("Failed to compact segment " + segment.id + " of the pack directory:");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void compactSegment(Segment segment) throws IOException {
+        long start = System.currentTimeMillis();
+        List<RecordLocation> liveRecords = new ArrayList<>();
+        indexLock.readLock().lock();
+
+        try {
+            for (RecordLocation location : index.values()) {
+                if (location.segmentId == segment.id) {
+                    liveRecords.add(location);
+                }
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+
+        for (RecordLocation location : liveRecords) {
+            byte[] data;
+            indexLock.readLock().lock();
+
+            try {
+                data = readData(location);
+            } finally {
+                indexLock.readLock().unlock();
+            }
+
+            // The world might have been saved again in the meantime, making this copy outdated. Appending it after the newer
+            // copy would make it the latest one the next time the segments are scanned
+            synchronized (appendLock) {
+                if (isLatest(location)) {
+                    updateIndex(append(location.worldName, data));
+                }
+            }
+        }
+
+        indexLock.writeLock().lock();
+
+        try {
+            segments.remove(segment.id);
+            segment.channel.close();
+            new File(PACK_DIR, "segment_" + segment.id + ".pack").delete();
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+
+        Logging.info("Compacted segment " + segment.id + " of the pack directory (" + liveRecords.size() + " worlds moved) in "
+                + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    private boolean isLatest(RecordLocation location) {
+        indexLock.readLock().lock();
+
+        try {
+            return index.get(location.worldName) == location;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void unlockWorld(String worldName) {
+        lockedWorlds.remove(worldName);
+    }
+
+    @Override
+    public boolean isWorldLocked(String worldName) {
+        return lockedWorlds.contains(worldName);
+    }
+
+    @RequiredArgsConstructor
+    private static class Segment {
+
+        private final int id;
+        private final FileChannel channel;
+
+        private volatile long size;
+        private long liveBytes; // Bytes used by the latest copy of the worlds
+    }
+
+    @RequiredArgsConstructor
+    private static class RecordLocation {
+
+        private final String worldName;
+        private final int segmentId;
+        private final long recordOffset;
+        private final long recordLength;
+        private final long dataOffset;
+        private final int dataLength;
+        private final int crc;
+    }
+}
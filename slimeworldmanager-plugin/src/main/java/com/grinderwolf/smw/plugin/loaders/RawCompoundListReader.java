@@ -0,0 +1,176 @@
+package com.grinderwolf.smw.plugin.loaders;
+
+import com.grinderwolf.smw.nms.RawCompoundTag;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Splits a serialized compound list (like the tile entities or entities of a Slime world) into raw compounds, without parsing them.
+// Only the coordinates of each compound are read, so they can be assigned to their chunks
+class RawCompoundListReader {
+
+    private static final int TAG_END = 0;
+    private static final int TAG_INT = 3;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+
+    private final ByteBuffer buffer;
+
+    RawCompoundListReader(byte[] data) {
+        this.buffer = ByteBuffer.wrap(data);
+    }
+
+    void read(String listName, CompoundConsumer consumer) {
+        if (!buffer.hasRemaining()) {
+            return;
+        }
+
+        // Root compound
+        if (buffer.get() != TAG_COMPOUND) {
+            throw new IllegalArgumentException("root tag is not a compound");
+        }
+
+        skipString();
+        int type;
+
+        while ((type = buffer.get()) != TAG_END) {
+            String name = readString();
+
+            if (type == TAG_LIST && name.equals(listName) && buffer.get(buffer.position()) == TAG_COMPOUND) {
+                buffer.get(); // Entries type
+                int size = buffer.getInt();
+
+                for (int i = 0; i < size; i++) {
+                    readCompound(consumer);
+                }
+            } else {
+                skipPayload(type);
+            }
+        }
+    }
+
+    private void readCompound(CompoundConsumer consumer) {
+        int start = buffer.position();
+        Integer x = null;
+        Integer z = null;
+        double[] pos = null;
+        int type;
+
+        while ((type = buffer.get()) != TAG_END) {
+            String name = readString();
+
+            if (type == TAG_INT && (name.equals("x") || name.equals("z"))) {
+                if (name.equals("x")) {
+                    x = buffer.getInt();
+                } else {
+                    z = buffer.getInt();
+                }
+            } else if (type == TAG_LIST && name.equals("Pos") && buffer.get(buffer.position()) == TAG_DOUBLE) {
+                buffer.get(); // Entries type
+                pos = new double[buffer.getInt()];
+
+                for (int i = 0; i < pos.length; i++) {
+                    pos[i] = buffer.getDouble();
+                }
+            } else {
+                skipPayload(type);
+            }
+        }
+
+        byte[] payload = Arrays.copyOfRange(buffer.array(), start, buffer.position());
+        int chunkX;
+        int chunkZ;
+
+        if (pos != null && pos.length == 3) { // Entities
+            chunkX = floor(pos[0]) >> 4;
+            chunkZ = floor(pos[2]) >> 4;
+        } else if (x != null && z != null) { // Tile entities
+            chunkX = x >> 4;
+            chunkZ = z >> 4;
+        } else {
+            throw new IllegalArgumentException("compound has no coordinates");
+        }
+
+        consumer.accept(new RawCompoundTag("", payload), chunkX, chunkZ);
+    }
+
+    private void skipPayload(int type) {
+        switch (type) {
+            case 1: // Byte
+                skip(1);
+                break;
+            case 2: // Short
+                skip(2);
+                break;
+            case 3: // Int
+            case 5: // Float
+                skip(4);
+                break;
+            case 4: // Long
+            case 6: // Double
+                skip(8);
+                break;
+            case 7: // Byte array
+                skip(buffer.getInt());
+                break;
+            case 8: // String
+                skipString();
+                break;
+            case 9: // List
+                int entriesType = buffer.get();
+                int size = buffer.getInt();
+
+                for (int i = 0; i < size; i++) {
+                    skipPayload(entriesType);
+                }
+
+                break;
+            case 10: // Compound
+                int entryType;
+
+                while ((entryType = buffer.get()) != TAG_END) {
+                    skipString();
+                    skipPayload(entryType);
+                }
+
+                break;
+            case 11: // Int array
+                skip(buffer.getInt() * 4);
+                break;
+            default:
+                throw new IllegalArgumentException("invalid tag type " + type);
+        }
+    }
+
+    private String readString() {
+        int length = buffer.getShort() & 0xFFFF;
+        String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        skip(length);
+
+        return string;
+    }
+
+    private void skipString() {
+        skip(buffer.getShort() & 0xFFFF);
+    }
+
+    private void skip(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("negative length " + length);
+        }
+
+        buffer.position(buffer.position() + length);
+    }
+
+    private static int floor(double num) {
+        final int floor = (int) num;
+        return floor == num ? floor : floor - (int) (Double.doubleToRawLongBits(num) >>> 63);
+    }
+
+    interface CompoundConsumer {
+
+        void accept(RawCompoundTag tag, int chunkX, int chunkZ);
+    }
+}
@@ -0,0 +1,264 @@
+package com.grinderwolf.smw.plugin.loaders;
+
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+import com.grinderwolf.smw.api.loaders.TimestampedLoader;
+import com.grinderwolf.smw.plugin.log.Logging;
+import lombok.RequiredArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Stores worlds inside a local SQLite database, using the driver bundled with the server
+public class SQLiteLoader implements TimestampedLoader {
+
+    private static final File DATABASE_FILE = new File("slime_worlds.db");
+    private static final int POOL_SIZE = 4;
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `worlds` (`name` TEXT PRIMARY KEY NOT NULL, `world` BLOB NOT NULL, "
+            + "`locked` INTEGER NOT NULL DEFAULT 0, `last_modified` INTEGER NOT NULL);";
+    private static final String CREATE_LOCKED_INDEX = "CREATE INDEX IF NOT EXISTS `worlds_locked` ON `worlds` (`locked`);";
+    private static final String SELECT_WORLD = "SELECT `world` FROM `worlds` WHERE `name` = ?;";
+    private static final String WORLD_EXISTS = "SELECT 1 FROM `worlds` WHERE `name` = ?;";
+    // The timestamp must change with every save, even if two of them happen within the same millisecond
+    private static final String UPDATE_WORLD = "UPDATE `worlds` SET `world` = ?, `last_modified` = MAX(?, `last_modified` + 1) WHERE `name` = ?;";
+    // Old SQLite versions (like the one bundled with the server) don't support upserts. If another save inserts the world
+    // first, this one is ignored and the world is updated instead
+    private static final String INSERT_WORLD = "INSERT OR IGNORE INTO `worlds` (`name`, `world`, `locked`, `last_modified`) VALUES (?, ?, 0, ?);";
+    private static final String LOCK_WORLD = "UPDATE `worlds` SET `locked` = 1 WHERE `name` = ? AND `locked` = 0;";
+    private static final String UNLOCK_WORLD = "UPDATE `worlds` SET `locked` = 0 WHERE `name` = ?;";
+    private static final String SELECT_LAST_MODIFIED = "SELECT `last_modified` FROM `worlds` WHERE `name` = ?;";
+    private static final String SELECT_LOCK = "SELECT `locked` FROM `worlds` WHERE `name` = ?;";
+
+    // Every connection keeps its own prepared statements, so they don't have to be prepared again every time
+    private BlockingQueue<PooledConnection> connectionPool;
+
+    // The database is opened the first time it's needed, so servers that don't use this loader never create it
+    private synchronized BlockingQueue<PooledConnection> getConnectionPool() throws IOException {
+        if (connectionPool == null) {
+            BlockingQueue<PooledConnection> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+            try {
+                Class.forName("org.sqlite.JDBC");
+
+                for (int i = 0; i < POOL_SIZE; i++) {
+                    Connection connection = DriverManager.getConnection("jdbc:sqlite:" + DATABASE_FILE.getPath());
+
+                    try (Statement statement = connection.createStatement()) {
+                        // Readers don't block the writer and the other way around, so concurrent loads and saves can run at the same time
+                        statement.execute("PRAGMA journal_mode=WAL;");
+                        statement.execute("PRAGMA busy_timeout=10000;");
+
+                        if (i == 0) {
+                            statement.execute(CREATE_TABLE);
+                            statement.execute(CREATE_LOCKED_INDEX);
+                        }
+                    }
+
+                    pool.add(new PooledConnection(connection));
+                }
+            } catch (ClassNotFoundException | SQLException ex) {
+                for (PooledConnection connection : pool) {
+                    connection.close();
+                }
+
+                throw new IOException("Failed to open the SQLite database", ex);
+            }
+
+            connectionPool = pool;
+        }
+
+        return connectionPool;
+    }
+
+    private <T> T withConnection(SQLFunction<T> function) throws IOException {
+        BlockingQueue<PooledConnection> pool = getConnectionPool();
+        PooledConnection connection;
+
+        try {
+            connection = pool.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Interrupted while waiting for a database connection", ex);
+        }
+
+        try {
+            return function.apply(connection);
+        } catch (SQLException ex) {
+            throw new IOException(ex);
+        } finally {
+            pool.add(connection);
+        }
+    }
+
+    @Override
+    public byte[] loadWorld(String worldName, boolean readOnly) throws UnknownWorldException, WorldInUseException, IOException {
+        if (!worldExists(worldName)) {
+            throw new UnknownWorldException(worldName);
+        }
+
+        // The lock is only acquired if no one else holds it, all in the same statement
+        if (!readOnly && withConnection(connection -> {
+            PreparedStatement statement = connection.prepare(LOCK_WORLD);
+            statement.setString(1, worldName);
+
+            return statement.executeUpdate();
+        }) == 0) {
+            throw new WorldInUseException(worldName);
+        }
+
+        try {
+            byte[] serializedWorld = withConnection(connection -> {
+                PreparedStatement statement = connection.prepare(SELECT_WORLD);
+                statement.setString(1, worldName);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getBytes(1) : null;
+                }
+            });
+
+            if (serializedWorld == null) {
+                throw new UnknownWorldException(worldName);
+            }
+
+            return serializedWorld;
+        } catch (IOException | UnknownWorldException ex) {
+            if (!readOnly) {
+                unlockWorld(worldName);
+            }
+
+            throw ex;
+        }
+    }
+
+    @Override
+    public boolean worldExists(String worldName) {
+        try {
+            return withConnection(connection -> {
+                PreparedStatement statement = connection.prepare(WORLD_EXISTS);
+                statement.setString(1, worldName);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next();
+                }
+            });
+        } catch (IOException ex) {
+            Logging.error("Failed to check whether world " + worldName + " exists:");
+            ex.printStackTrace();
+
+            return false;
+        }
+    }
+
+    @Override
+    public long getLastModified(String worldName) throws UnknownWorldException, IOException {
+        Long lastModified = withConnection(connection -> {
+            PreparedStatement statement = connection.prepare(SELECT_LAST_MODIFIED);
+            statement.setString(1, worldName);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : null;
+            }
+        });
+
+        if (lastModified == null) {
+            throw new UnknownWorldException(worldName);
+        }
+
+        return lastModified;
+    }
+
+    @Override
+    public void saveWorld(String worldName, byte[] serializedWorld) throws IOException {
+        withConnection(connection -> {
+            long now = System.currentTimeMillis();
+
+            if (updateWorld(connection, worldName, serializedWorld, now) == 0) {
+                PreparedStatement insertStatement = connection.prepare(INSERT_WORLD);
+                insertStatement.setString(1, worldName);
+                insertStatement.setBytes(2, serializedWorld);
+                insertStatement.setLong(3, now);
+
+                if (insertStatement.executeUpdate() == 0) {
+                    updateWorld(connection, worldName, serializedWorld, now);
+                }
+            }
+
+            return null;
+        });
+    }
+
+    private static int updateWorld(PooledConnection connection, String worldName, byte[] serializedWorld, long now) throws SQLException {
+        PreparedStatement statement = connection.prepare(UPDATE_WORLD);
+        statement.setBytes(1, serializedWorld);
+        statement.setLong(2, now);
+        statement.setString(3, worldName);
+
+        return statement.executeUpdate();
+    }
+
+    @Override
+    public void unlockWorld(String worldName) throws IOException {
+        withConnection(connection -> {
+            PreparedStatement statement = connection.prepare(UNLOCK_WORLD);
+            statement.setString(1, worldName);
+
+            return statement.executeUpdate();
+        });
+    }
+
+    @Override
+    public boolean isWorldLocked(String worldName) throws IOException {
+        return withConnection(connection -> {
+            PreparedStatement statement = connection.prepare(SELECT_LOCK);
+            statement.setString(1, worldName);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getInt(1) != 0;
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface SQLFunction<T> {
+
+        T apply(PooledConnection connection) throws SQLException;
+    }
+
+    @RequiredArgsConstructor
+    private static class PooledConnection {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            } else {
+                statement.clearParameters();
+            }
+
+            return statement;
+        }
+
+        void close() {
+            try {
+                connection.close();
+            } catch (SQLException ignored) { }
+        }
+    }
+}
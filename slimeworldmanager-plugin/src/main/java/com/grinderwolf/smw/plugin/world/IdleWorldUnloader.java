@@ -0,0 +1,106 @@
+package com.grinderwolf.smw.plugin.world;
+
+import com.grinderwolf.smw.api.loaders.SlimeLoader;
+import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.plugin.SMWPlugin;
+import com.grinderwolf.smw.plugin.log.Logging;
+import lombok.RequiredArgsConstructor;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Saves and unloads the slime worlds that have had no players for a while
+public class IdleWorldUnloader implements Runnable {
+
+    public static final long CHECK_INTERVAL = 20L;
+
+    // These maps are only accessed from the main thread
+    private final Map<String, Long> idleSince = new HashMap<>();
+    private final Map<String, UnloadedWorld> unloadedWorlds = new HashMap<>();
+
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+
+        for (World world : Bukkit.getWorlds()) {
+            SlimeWorld slimeWorld = SMWPlugin.getInstance().getNms().getSlimeWorld(world);
+
+            if (slimeWorld == null || slimeWorld.getProperties().getIdleTimeout() == 0 || !world.getPlayers().isEmpty()) {
+                idleSince.remove(world.getName());
+                continue;
+            }
+
+            long idleTime = now - idleSince.computeIfAbsent(world.getName(), name -> now);
+
+            if (idleTime >= slimeWorld.getProperties().getIdleTimeout() * 1000L) {
+                idleSince.remove(world.getName());
+                unloadWorld(world, slimeWorld);
+            }
+        }
+
+        idleSince.keySet().removeIf(worldName -> Bukkit.getWorld(worldName) == null);
+    }
+
+    private void unloadWorld(World world, SlimeWorld slimeWorld) {
+        String worldName = world.getName();
+        Logging.info("Unloading world " + worldName + " as it has been idle for a while.");
+
+        SMWPlugin.getInstance().unloadWorld(slimeWorld, true).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                Logging.warning("Failed to unload idle world " + worldName + ": " + throwable.getMessage());
+            }
+        });
+
+        // The world might have been detached from the server even if saving it failed
+        if (Bukkit.getWorld(worldName) == null) {
+            unloadedWorlds.put(worldName, new UnloadedWorld(slimeWorld.getLoader(), slimeWorld.getProperties()));
+        }
+    }
+
+    public boolean wasUnloaded(String worldName) {
+        return unloadedWorlds.containsKey(worldName);
+    }
+
+    // Loads again a world that was unloaded for being idle. Must be called from the main thread
+    public CompletableFuture<World> reloadWorld(String worldName) {
+        UnloadedWorld unloadedWorld = unloadedWorlds.get(worldName);
+
+        if (unloadedWorld == null) {
+            throw new IllegalArgumentException("World " + worldName + " has not been unloaded for being idle!");
+        }
+
+        CompletableFuture<World> future = new CompletableFuture<>();
+        CompletableFuture<Void> pendingUnload = SMWPlugin.getInstance().getWorldUnloader().getPendingUnload(worldName);
+
+        // The world can't be loaded again until it has been saved and unlocked
+        pendingUnload.handle((result, throwable) -> null).thenRun(() -> Bukkit.getScheduler().runTask(SMWPlugin.getInstance(), () -> {
+            World world = Bukkit.getWorld(worldName);
+
+            if (world == null) {
+                try {
+                    SMWPlugin.getInstance().loadWorld(unloadedWorld.loader, worldName, unloadedWorld.properties);
+                    unloadedWorlds.remove(worldName);
+                    world = Bukkit.getWorld(worldName);
+                } catch (Exception ex) {
+                    future.completeExceptionally(ex);
+
+                    return;
+                }
+            }
+
+            future.complete(world);
+        }));
+
+        return future;
+    }
+
+    @RequiredArgsConstructor
+    private static class UnloadedWorld {
+
+        private final SlimeLoader loader;
+        private final SlimeWorld.SlimeProperties properties;
+    }
+}
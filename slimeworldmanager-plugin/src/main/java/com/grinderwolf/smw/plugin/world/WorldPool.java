@@ -0,0 +1,140 @@
+package com.grinderwolf.smw.plugin.world;
+
+import com.grinderwolf.smw.api.exceptions.CorruptedWorldException;
+import com.grinderwolf.smw.api.exceptions.NewerFormatException;
+import com.grinderwolf.smw.api.exceptions.SlimeException;
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+import com.grinderwolf.smw.api.loaders.SlimeLoader;
+import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.plugin.SMWPlugin;
+import com.grinderwolf.smw.plugin.loaders.LoaderUtils;
+import com.grinderwolf.smw.plugin.log.Logging;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+public class WorldPool {
+
+    private final WorldPoolManager manager;
+
+    @Getter
+    private final String templateName;
+    private final SlimeLoader loader;
+    private final SlimeWorld.SlimeProperties properties;
+    @Getter
+    private final int size;
+
+    // These fields are only accessed from the main thread
+    private final Queue<SlimeWorld> availableWorlds = new ArrayDeque<>();
+    private int pendingWorlds;
+    private int nextWorldId = 1;
+
+    // The serialized template is fetched just once, and then every instance is deserialized from it
+    private byte[] serializedTemplate;
+
+    WorldPool(WorldPoolManager manager, String templateName, SlimeLoader loader, SlimeWorld.SlimeProperties properties, int size) {
+        this.manager = manager;
+        this.templateName = templateName;
+        this.loader = loader;
+        // Instances must never be saved back to the template, and their chunks can't be read again by their own name.
+        // They're unloaded when released, not when idle
+        this.properties = properties.toBuilder().readOnly(true).memoryLimit(0).idleTimeout(0).build();
+        this.size = size;
+    }
+
+    public int getAvailableWorlds() {
+        return availableWorlds.size();
+    }
+
+    void refill() {
+        while (availableWorlds.size() + pendingWorlds < size) {
+            String worldName = nextWorldName();
+            pendingWorlds++;
+
+            Bukkit.getScheduler().runTaskAsynchronously(SMWPlugin.getInstance(), () -> {
+
+                try {
+                    SlimeWorld world = createWorld(worldName);
+                    manager.queueGeneration(() -> {
+                        pendingWorlds--;
+                        generateWorld(world);
+                        availableWorlds.add(world);
+                    });
+                } catch (SlimeException | IOException ex) {
+                    Logging.error("Failed to create instance " + worldName + " of pooled world " + templateName + ":");
+                    ex.printStackTrace();
+
+                    Bukkit.getScheduler().runTask(SMWPlugin.getInstance(), () -> pendingWorlds--);
+                }
+
+            });
+        }
+    }
+
+    SlimeWorld claimWorld() throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException, WorldInUseException {
+        SlimeWorld world = availableWorlds.poll();
+
+        if (world == null) {
+            Logging.warning("World pool " + templateName + " is empty! Creating a new instance on the main thread. Consider increasing its pool size.");
+            world = createWorld(nextWorldName());
+            generateWorld(world);
+        }
+
+        refill();
+
+        return world;
+    }
+
+    // Returns whether the instance has been unloaded. It's only replaced once it has
+    boolean releaseWorld(SlimeWorld world) {
+        World bukkitWorld = Bukkit.getWorld(world.getName());
+
+        // Instances are never recycled in place: they get discarded and replaced by a fresh copy of the template
+        if (bukkitWorld != null && !Bukkit.unloadWorld(bukkitWorld, false)) {
+            Logging.error("Failed to unload pooled world " + world.getName() + ". Are there any players left in it?");
+
+            return false;
+        }
+
+        refill();
+
+        return true;
+    }
+
+    private String nextWorldName() {
+        String worldName;
+
+        do {
+            worldName = templateName + "_" + nextWorldId++;
+        } while (Bukkit.getWorld(worldName) != null);
+
+        return worldName;
+    }
+
+    private SlimeWorld createWorld(String worldName) throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException, WorldInUseException {
+        return LoaderUtils.deserializeWorld(loader, worldName, getSerializedTemplate(), properties);
+    }
+
+    // Amount of memory (in bytes) used by the cached template
+    public synchronized long getTemplateSize() {
+        return serializedTemplate == null ? 0 : serializedTemplate.length;
+    }
+
+    private synchronized byte[] getSerializedTemplate() throws UnknownWorldException, IOException, WorldInUseException {
+        if (serializedTemplate == null) {
+            serializedTemplate = loader.loadWorld(templateName, true);
+        }
+
+        return serializedTemplate;
+    }
+
+    private void generateWorld(SlimeWorld world) {
+        SMWPlugin.getInstance().getNms().generateWorld(world);
+        manager.registerWorld(world, this);
+    }
+}
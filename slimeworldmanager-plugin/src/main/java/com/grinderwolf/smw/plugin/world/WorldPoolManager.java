@@ -0,0 +1,88 @@
+package com.grinderwolf.smw.plugin.world;
+
+import com.grinderwolf.smw.api.exceptions.CorruptedWorldException;
+import com.grinderwolf.smw.api.exceptions.NewerFormatException;
+import com.grinderwolf.smw.api.exceptions.UnknownWorldException;
+import com.grinderwolf.smw.api.exceptions.WorldInUseException;
+import com.grinderwolf.smw.api.loaders.SlimeLoader;
+import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.plugin.SMWPlugin;
+import org.bukkit.Bukkit;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class WorldPoolManager {
+
+    private final Map<String, WorldPool> pools = new HashMap<>();
+    private final Map<String, WorldPool> pooledWorlds = new HashMap<>();
+    private final Queue<Runnable> generationQueue = new ConcurrentLinkedQueue<>();
+
+    public WorldPoolManager() {
+        // Pooled worlds are generated one per tick, so refilling the pools never stalls the server
+        Bukkit.getScheduler().runTaskTimer(SMWPlugin.getInstance(), () -> {
+            Runnable task = generationQueue.poll();
+
+            if (task != null) {
+                task.run();
+            }
+        }, 1L, 1L);
+    }
+
+    public void createPool(String templateName, SlimeLoader loader, SlimeWorld.SlimeProperties properties, int size) {
+        if (pools.containsKey(templateName)) {
+            throw new IllegalArgumentException("world pool '" + templateName + "' already exists");
+        }
+
+        if (size <= 0) {
+            throw new IllegalArgumentException("invalid pool size " + size);
+        }
+
+        WorldPool pool = new WorldPool(this, templateName, loader, properties, size);
+        pools.put(templateName, pool);
+        pool.refill();
+    }
+
+    public SlimeWorld claimWorld(String templateName) throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException, WorldInUseException {
+        WorldPool pool = pools.get(templateName);
+
+        if (pool == null) {
+            throw new UnknownWorldException(templateName);
+        }
+
+        return pool.claimWorld();
+    }
+
+    public boolean releaseWorld(SlimeWorld world) {
+        WorldPool pool = pooledWorlds.get(world.getName());
+
+        if (pool == null) {
+            throw new IllegalArgumentException("World " + world.getName() + " does not belong to any world pool!");
+        }
+
+        // Instances that couldn't be unloaded still belong to the pool, so they can be released again later on
+        if (!pool.releaseWorld(world)) {
+            return false;
+        }
+
+        pooledWorlds.remove(world.getName());
+
+        return true;
+    }
+
+    public Collection<WorldPool> getPools() {
+        return pools.values();
+    }
+
+    void queueGeneration(Runnable task) {
+        generationQueue.add(task);
+    }
+
+    void registerWorld(SlimeWorld world, WorldPool pool) {
+        pooledWorlds.put(world.getName(), pool);
+    }
+}
@@ -0,0 +1,105 @@
+package com.grinderwolf.smw.plugin.world;
+
+import com.grinderwolf.smw.api.world.SlimeWorld;
+import com.grinderwolf.smw.plugin.SMWPlugin;
+import com.grinderwolf.smw.plugin.log.Logging;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Unloads slime worlds without blocking the main thread: the world is detached from the server right away,
+// and then it's saved and unlocked in the background
+public class WorldUnloader {
+
+    // Worlds that have been unloaded but are still being saved or unlocked
+    private final Map<String, CompletableFuture<Void>> pendingUnloads = new ConcurrentHashMap<>();
+
+    public CompletableFuture<Void> unloadWorld(SlimeWorld slimeWorld, boolean save) {
+        if (!Bukkit.isPrimaryThread()) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+
+            Bukkit.getScheduler().runTask(SMWPlugin.getInstance(), () -> unloadWorld(slimeWorld, save).whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                } else {
+                    future.complete(null);
+                }
+            }));
+
+            return future;
+        }
+
+        CompletableFuture<Void> unload = new CompletableFuture<>();
+        String worldName = slimeWorld.getName();
+        World world = Bukkit.getWorld(worldName);
+
+        if (world == null || SMWPlugin.getInstance().getNms().getSlimeWorld(world) != slimeWorld) {
+            unload.completeExceptionally(new IllegalArgumentException("World " + worldName + " is not loaded!"));
+
+            return unload;
+        }
+
+        // Chunks have to be written to the slime world before detaching it from the server
+        CompletableFuture<Void> saveFuture = save ? SMWPlugin.getInstance().getNms().saveWorld(world) : CompletableFuture.completedFuture(null);
+        pendingUnloads.put(worldName, unload);
+
+        if (!Bukkit.unloadWorld(world, false)) {
+            pendingUnloads.remove(worldName);
+            unload.completeExceptionally(new IllegalStateException("Failed to unload world " + worldName + ". Are there any players left in it?"));
+
+            return unload;
+        }
+
+        saveFuture.whenComplete((result, throwable) -> {
+            if (throwable != null) { // Keep it locked, so no one loads an outdated copy of it
+                Logging.error("Failed to save world " + worldName + " while unloading it, so it won't be unlocked:");
+                throwable.printStackTrace();
+
+                pendingUnloads.remove(worldName);
+                unload.completeExceptionally(throwable);
+
+                return;
+            }
+
+            // Read-only worlds never lock the world, so there's nothing to unlock
+            if (slimeWorld.getProperties().isReadOnly()) {
+                pendingUnloads.remove(worldName);
+                unload.complete(null);
+
+                return;
+            }
+
+            Bukkit.getScheduler().runTaskAsynchronously(SMWPlugin.getInstance(), () -> {
+
+                try {
+                    slimeWorld.getLoader().unlockWorld(worldName);
+                    pendingUnloads.remove(worldName);
+                    unload.complete(null);
+                } catch (IOException ex) {
+                    Logging.error("Failed to unlock world " + worldName + ". Please unlock it manually by using the command /smw manualunlock. Stack trace:");
+                    ex.printStackTrace();
+
+                    pendingUnloads.remove(worldName);
+                    unload.completeExceptionally(ex);
+                }
+
+            });
+        });
+
+        return unload;
+    }
+
+    // Whether the world is being saved and unlocked after being unloaded
+    public boolean isUnloading(String worldName) {
+        return pendingUnloads.containsKey(worldName);
+    }
+
+    // Completed once the world has been saved and unlocked, if it's being unloaded
+    public CompletableFuture<Void> getPendingUnload(String worldName) {
+        return pendingUnloads.getOrDefault(worldName, CompletableFuture.completedFuture(null));
+    }
+}
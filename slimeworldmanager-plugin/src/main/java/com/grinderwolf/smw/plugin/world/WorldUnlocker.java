@@ -17,7 +17,9 @@ public class WorldUnlocker implements Listener {
     public void onWorldUnload(WorldUnloadEvent event) {
         SlimeWorld world = SMWPlugin.getInstance().getNms().getSlimeWorld(event.getWorld());
 
-        if (world != null) {
+        // Read-only worlds never lock the world, so there's nothing to unlock. Worlds unloaded through
+        // the API are unlocked once they've been saved
+        if (world != null && !world.getProperties().isReadOnly() && !SMWPlugin.getInstance().getWorldUnloader().isUnloading(world.getName())) {
             Bukkit.getScheduler().runTaskAsynchronously(SMWPlugin.getInstance(), () -> {
 
                 try {